@@ -0,0 +1,122 @@
+package model;
+
+// Java imports
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Builds the libraries the benchmarks run against. The photos point at a few hundred tiny
+ * placeholder images, each with its own date a day apart through 2020, and get one to three
+ * tags drawn from a fixed vocabulary with a seeded random, so every run searches the same
+ * library.
+ *
+ * @author ks1686
+ */
+final class BenchLibrary {
+
+    /**
+     * the keys of the tags, every photo has at most one tag of each
+     */
+    static final String[] KEYS = {"person", "location", "event"};
+
+    /**
+     * the number of values of each key, value0 to value49
+     */
+    static final int VALUES = 50;
+
+    /**
+     * the seed the benchmarks build their libraries with
+     */
+    static final long SEED = 42;
+
+    // the photos share these files, a photo reads its file once when it is created
+    private static final int FILES = 256;
+
+    private static File directory;
+
+    private BenchLibrary() {
+    }
+
+    /**
+     * create photos with random tags
+     *
+     * @param count the number of photos
+     * @param random picks the tags
+     * @return the photos
+     * @throws IOException if the placeholder images cannot be written
+     */
+    static List<Photo> photos(int count, Random random) throws IOException {
+        File[] files = placeholders().listFiles();
+        Arrays.sort(files);
+        List<Photo> photos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<Map<String, String>> tags = new ArrayList<>();
+            for (String key : KEYS) {
+                // each key with even odds, and always a person, so no photo is untagged
+                if (key.equals("person") || random.nextBoolean()) {
+                    tags.add(Map.of(key, "value" + random.nextInt(VALUES)));
+                }
+            }
+            photos.add(new Photo(files[random.nextInt(files.length)].getPath(), "", tags));
+        }
+        return photos;
+    }
+
+    /**
+     * create a user whose albums all have the same number of photos
+     *
+     * @param username the name of the user
+     * @param albums the number of albums
+     * @param photosPerAlbum the number of photos in each album
+     * @param seed picks the tags
+     * @return the user
+     * @throws IOException if the placeholder images cannot be written
+     */
+    static User user(String username, int albums, int photosPerAlbum, long seed) throws IOException {
+        Random random = new Random(seed);
+        User user = new User(username);
+        for (int i = 0; i < albums; i++) {
+            user.createAlbum("album" + i);
+            user.getAlbum("album" + i).addPhotos(photos(photosPerAlbum, random));
+        }
+        return user;
+    }
+
+    /**
+     * get the directory of placeholder images, writing them the first time
+     *
+     * @return the directory
+     * @throws IOException if the images cannot be written
+     */
+    static synchronized File placeholders() throws IOException {
+        if (directory != null) {
+            return directory;
+        }
+        File dir = Files.createTempDirectory("bench-photos").toFile();
+        dir.deleteOnExit();
+        Calendar date = Calendar.getInstance();
+        date.clear();
+        date.set(2020, Calendar.JANUARY, 1, 12, 0);
+        for (int i = 0; i < FILES; i++) {
+            // a different pixel in each, so the files have different contents
+            BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, i * 0x010305);
+            File file = new File(dir, "photo" + i + ".png");
+            ImageIO.write(image, "png", file);
+            file.setLastModified(date.getTimeInMillis());
+            file.deleteOnExit();
+            date.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        directory = dir;
+        return dir;
+    }
+}
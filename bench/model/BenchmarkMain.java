@@ -0,0 +1,40 @@
+package model;
+
+// Java imports
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks and writes their results to bench-results.json, so the results of two runs
+ * can be compared. Takes the options of the JMH command line, for example a pattern to run only
+ * some benchmarks or {@code -p photos=1000} to run only one size. The results go elsewhere if
+ * {@code -rf} or {@code -rff} is given.
+ *
+ * @author ks1686
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    /**
+     * run the benchmarks
+     *
+     * @param args the options of the JMH command line
+     * @throws Exception if the benchmarks cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> options = Arrays.asList(args);
+        if (options.contains("-rf") || options.contains("-rff")) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        String[] withResults = new String[args.length + 4];
+        withResults[0] = "-rf";
+        withResults[1] = "json";
+        withResults[2] = "-rff";
+        withResults[3] = "bench-results.json";
+        System.arraycopy(args, 0, withResults, 4, args.length);
+        org.openjdk.jmh.Main.main(withResults);
+    }
+}
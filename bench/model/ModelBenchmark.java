@@ -0,0 +1,78 @@
+package model;
+
+// Java imports
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// JMH imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the date range of an album and adding and removing its photos. Every benchmark that
+ * adds photos removes them again, so the album keeps its size through the run.
+ *
+ * @author ks1686
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    // photos added and removed at once by the batch benchmark, like an import of a folder
+    private static final int BATCH = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int photos;
+
+    private Album album;
+    private Photo extra;
+    private List<Photo> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(BenchLibrary.SEED);
+        album = new Album("bench", BenchLibrary.photos(photos, random));
+        batch = BenchLibrary.photos(BATCH, random);
+        extra = batch.get(0);
+    }
+
+    @Benchmark
+    public Calendar startDate() {
+        return album.getStartDate();
+    }
+
+    @Benchmark
+    public Calendar endDate() {
+        return album.getEndDate();
+    }
+
+    @Benchmark
+    public int addAndRemovePhoto() {
+        album.addPhoto(extra);
+        album.removePhoto(extra);
+        return album.getSize();
+    }
+
+    @Benchmark
+    public int addAndRemoveBatch() {
+        album.addPhotos(batch);
+        album.removePhotos(batch);
+        return album.getSize();
+    }
+}
@@ -0,0 +1,77 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// JMH imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures saving a library with {@link Photos#writeApp} and reading it back with
+ * {@link Photos#readApp}. The library is saved to bench-data in the working directory instead of
+ * the real library in data.
+ *
+ * @author ks1686
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dphotos.storeDir=bench-data")
+public class PersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int photos;
+
+    private Photos app;
+
+    @Setup
+    public void setUp() throws IOException {
+        app = new Photos();
+        app.addUser(BenchLibrary.user("bench", 10, photos / 10, BenchLibrary.SEED));
+        // readApp needs something to read before writeApp has run
+        Photos.writeApp(app);
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(new File(Photos.storeDir));
+    }
+
+    @Benchmark
+    public void writeApp() throws IOException {
+        Photos.writeApp(app);
+    }
+
+    @Benchmark
+    public Photos readApp() throws IOException, ClassNotFoundException {
+        return Photos.readApp();
+    }
+
+    /**
+     * delete a directory and everything in it
+     */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
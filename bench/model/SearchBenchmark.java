@@ -0,0 +1,81 @@
+package model;
+
+// Java imports
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// JMH imports
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures searching one album with {@link Album#search} and all albums of a user with
+ * {@link User#searchAlbums}, for each kind of query. The user has ten albums that together hold
+ * as many photos as the single album.
+ *
+ * @author ks1686
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    /**
+     * The kinds of query, each matching a share of the photos of the library.
+     */
+    public enum Query {
+        TAG("person=value1"),
+        AND("person=value1 AND location=value2"),
+        OR("person=value1 OR location=value2"),
+        DATE("03/01/2020-06/30/2020");
+
+        private final String text;
+
+        Query(String text) {
+            this.text = text;
+        }
+    }
+
+    @Param({"1000", "10000", "100000"})
+    public int photos;
+
+    @Param({"TAG", "AND", "OR", "DATE"})
+    public Query query;
+
+    private Album album;
+    private User user;
+
+    @Setup
+    public void setUp() throws IOException {
+        user = BenchLibrary.user("bench", 10, photos / 10, BenchLibrary.SEED);
+        List<Photo> all = new ArrayList<>();
+        for (Album userAlbum : user.getAlbums()) {
+            all.addAll(userAlbum.getPhotos());
+        }
+        album = new Album("all", all);
+    }
+
+    @Benchmark
+    public List<Photo> albumSearch() {
+        return album.search(query.text);
+    }
+
+    @Benchmark
+    public List<Photo> userSearchAlbums() {
+        return user.searchAlbums(query.text);
+    }
+}
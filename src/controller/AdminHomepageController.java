@@ -2,10 +2,14 @@ package controller;
 
 // Java imports
 import java.io.File;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 // JavaFX imports
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextInputDialog;
@@ -13,9 +17,16 @@ import javafx.scene.layout.AnchorPane;
 import javafx.stage.Stage;
 
 // Project imports
+import model.Album;
+import model.DuplicateIndex;
+import model.PhotoImporter;
+import model.Photo;
 import model.Photos;
+import model.Session;
 import model.User;
+import static model.Photos.errorAlert;
 import static model.Photos.infoAlert;
+import static model.Photos.reportAlert;
 
 /**
  * Controller for the admin homepage. The admin homepage displays a list of users
@@ -63,14 +74,19 @@ public class AdminHomepageController {
                   return;
               }
           }
+          if (app.getUnreadableUsers().contains(username)) {
+              // the file of that user is still there, a new user would overwrite it
+              Photos.errorAlert("Error", "Username Already Exists", "A user with this name exists but could not be read. Please enter a different username.");
+              return;
+          }
           // create a new user with the entered username
           User newUser = new User(username);
           // add the user to the list of users
-          users.add(newUser);
+          app.addUser(newUser);
           // add the user to the list view
           adminUserListController.obsList.add(username);
-          // create a new folder in data/users/ with the username
-          File userDir = new File("data/users/" + username);
+          // create a new folder in the users folder of the library with the username
+          File userDir = Photos.userDirOf(username);
           userDir.mkdir();
 
           // show an alert that the user was created successfully
@@ -96,12 +112,15 @@ public class AdminHomepageController {
           for (User user : users) {
               // if the username of the user is the same as the selected username
               if (user.getUsername().equals(selectedUsername)) {
-                  // remove the user from the list of users
-                  users.remove(user);
+                  // remove the user from the list of users, unless they are logged in
+                  if (!app.removeUser(user)) {
+                      Photos.errorAlert("Error", "User Is Logged In", "The user " + selectedUsername + " must log out before they can be deleted.");
+                      return;
+                  }
                   // remove the user from the list view
                   adminUserListController.obsList.remove(selectedUsername);
-                  // delete the folder in data/users/ with the username
-                  File userDir = new File("data/users/" + selectedUsername);
+                  // delete the folder in the users folder of the library with the username
+                  File userDir = Photos.userDirOf(selectedUsername);
                   recursiveDeleteDir(userDir);
                   // show an alert that the user was deleted successfully
                   infoAlert("User Deleted", "User Deleted Successfully", "The user " + selectedUsername + " was deleted successfully.");
@@ -111,6 +130,54 @@ public class AdminHomepageController {
       }
     }
 
+    /**
+     * method to show a report of the photos that are stored more than once across all users
+     */
+    @FXML
+    public void duplicateReport() {
+      // hashing the photos of old libraries reads their files, so the index is built on the worker pool
+      List<User> users = app.getUsers();
+      PhotoImporter.index(users).whenComplete((index, error) -> Platform.runLater(() -> {
+          if (error != null) {
+              errorAlert("Duplicate Report", "Failed to build the report", error.getMessage());
+          } else {
+              showDuplicateReport(users, index);
+          }
+      }));
+    }
+
+    /**
+     * method to show the duplicate report once the photos of every user are indexed
+     * @param users: the users that were indexed
+     * @param index: the index of their photos
+     */
+    private void showDuplicateReport(List<User> users, DuplicateIndex index) {
+      // remember where each photo lives so the report can say which albums hold the copies
+      Map<Photo, List<String>> locations = new IdentityHashMap<>();
+      for (User user : users) {
+          for (Album album : user.getAlbums()) {
+              for (Photo photo : album.getPhotos()) {
+                  locations.computeIfAbsent(photo, k -> new ArrayList<>()).add(user.getUsername() + "/" + album.getAlbumName());
+              }
+          }
+      }
+
+      Map<String, List<Photo>> groups = index.getDuplicateGroups();
+      if (groups.isEmpty()) {
+          infoAlert("Duplicate Report", "No duplicates found", "Every photo in the library has unique contents.");
+          return;
+      }
+
+      StringBuilder report = new StringBuilder();
+      for (Map.Entry<String, List<Photo>> group : groups.entrySet()) {
+          report.append("Content ").append(group.getKey(), 0, 12).append(":\n");
+          for (Photo photo : group.getValue()) {
+              report.append("  ").append(photo.getFilePath()).append(" in ").append(locations.get(photo)).append("\n");
+          }
+      }
+      reportAlert("Duplicate Report", groups.size() + " image(s) are stored more than once", report.toString());
+    }
+
     /**
      * method to recursively delete a directory
      * @param dir: the directory to delete
@@ -148,7 +215,7 @@ public class AdminHomepageController {
     @FXML
     public void logout() {
       // call the logout method in the PhotoApp class
-      app.logout(app);
+      app.logout(Session.of(Session.ADMIN));
       // close the current window
       Stage stage = (Stage) createUserButton.getScene().getWindow();
       stage.close();
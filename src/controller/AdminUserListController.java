@@ -28,6 +28,10 @@ public class AdminUserListController {
     @FXML ListView<String> adminUserListView;
     public ObservableList<String> obsList;
 
+    // the stage the list is shown in, and whether the selection listener was added
+    private Stage stage;
+    private boolean listening;
+
     /**
      * Start method for the admin user list controller.
      * @param stage: the stage to display the admin user list
@@ -41,9 +45,13 @@ public class AdminUserListController {
         }
         obsList = FXCollections.observableArrayList(users);
         adminUserListView.setItems(obsList);
+        this.stage = stage;
 
-        // set the listener
-        adminUserListView.getSelectionModel().selectedIndexProperty().addListener((obsList, oldVal, newVal) -> showItem(stage));
+        // set the listener, once, since the view is reused every time the admin logs in
+        if (!listening) {
+            adminUserListView.getSelectionModel().selectedIndexProperty().addListener((obsList, oldVal, newVal) -> showItem(this.stage));
+            listening = true;
+        }
 
     }
 
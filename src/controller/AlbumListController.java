@@ -1,23 +1,27 @@
 package controller;
 
 // Java imports
-import java.io.IOException;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 // JavaFX imports
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.ListView;
-import javafx.scene.layout.Pane;
-import javafx.stage.Stage;
 
 // Project imports
 import model.Album;
+import model.FolderAlbum;
+import model.FolderSync;
+import model.ModelEvent;
+import model.ModelEventBus;
 import model.Photos;
 import model.User;
 import static model.Photos.errorAlert;
@@ -28,6 +32,7 @@ import static model.Photos.infoAlert;
  * It allows the user to delete, rename, and create albums.
  * It also allows the user to select an album to view its photos.
  * It is used in the album list view.
+ * The list follows the changes to the user's albums while it is shown.
  *
  * @author jacobjude
  * @author ks1686
@@ -35,9 +40,14 @@ import static model.Photos.infoAlert;
 public class AlbumListController {
     @FXML ListView<String> albumListView;
     private ObservableList<String> obsList;
+    // the album shown in each row of the list
+    private final List<Album> rows = new ArrayList<>();
     private User user;
     private Photos app;
 
+    // keeps the rows current as albums are created, deleted, renamed and filled
+    private ModelEventBus.Subscription modelSubscription;
+
 
     /**
      * Method to start the album list controller
@@ -46,22 +56,31 @@ public class AlbumListController {
      */
     public void start(User user, Photos app) {
 
+        // the view is reused, stop following the albums of the last user
+        if (modelSubscription != null) {
+            modelSubscription.cancel();
+        }
+
         List<Album> albums = user.getAlbums();
         List<String> albumNames = new ArrayList<>();
         this.user = user;
         this.app = app;
 
         // add the number of photos on each album to the list and the range of dates
+        rows.clear();
         for (Album album : albums) {
 
             String albumName = getAlbumName(album);
             albumNames.add(albumName);
+            rows.add(album);
         }
         obsList = FXCollections.observableArrayList(albumNames); // create an observable list from the list of albums
         albumListView.setItems(obsList); // set the list view to the observable list
 
         albumListView.getSelectionModel().select(0); // select the first item in the list
 
+        // albums can change while the list is shown, folder albums in the background
+        modelSubscription = ModelEventBus.subscribe(ModelEvent.class, Platform::runLater, this::modelChanged);
     }
 
     /**
@@ -106,29 +125,13 @@ public class AlbumListController {
      * @param albumName: the album name
      */
     public void deleteAlbum(String albumName) {
-        user.getAlbums().remove(user.getAlbum(albumName));
-        obsList.remove(albumName);
-
-        infoAlert("Album Deleted", "" ,"Album " + albumName + " has been deleted.");
-
-
-        // load the homepage controller
-        FXMLLoader loader = new FXMLLoader();
-        loader.setLocation(getClass().getResource("/view/homepage.fxml"));
-
-        Pane root;
-        try {
-            root = loader.load();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        Album album = user.getAlbum(albumName);
+        if (album instanceof FolderAlbum folderAlbum) {
+            FolderSync.stop(folderAlbum);
         }
+        user.deleteAlbum(album);
 
-        HomepageController homepageController = loader.getController();
-        Stage stage = (Stage) albumListView.getScene().getWindow();
-        homepageController.start(user, app);
-        Scene scene = new Scene(root, 800, 600);
-        stage.setScene(scene);
-        stage.show();
+        infoAlert("Album Deleted", "" ,"Album " + albumName + " has been deleted.");
     }
 
     /**
@@ -143,25 +146,6 @@ public class AlbumListController {
         // rename if new name isn't null, doesn't match the albumName, and doesn't already exist
         if (newAlbumName != null && !newAlbumName.equals(albumName) && !obsList.contains(newAlbumName)){
             user.getAlbum(albumName).setAlbumName(newAlbumName);
-            obsList.set(albumListView.getSelectionModel().getSelectedIndex(), newAlbumName);
-
-            // load the homepage controller
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(getClass().getResource("/view/homepage.fxml"));
-
-            Pane root;
-            try {
-                root = loader.load();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-
-            HomepageController homepageController = loader.getController();
-            Stage stage = (Stage) albumListView.getScene().getWindow();
-            homepageController.start(user, app);
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
         } else {
             errorAlert("Error", "Invalid Album Name", "The album name is invalid.");
         }
@@ -189,30 +173,95 @@ public class AlbumListController {
 
         if (!obsList.contains(albumName)) {
             user.createAlbum(albumName);
-            obsList.add(albumName);
+        } else {
+            errorAlert("Error", "Invalid Album Name", "The album name is invalid.");
+        }
 
-            // load the homepage controller
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(getClass().getResource("/view/homepage.fxml"));
+    }
+
+    /**
+     * Method to create an album that is kept in sync with a directory
+     * @param albumName: the album name
+     * @param directory: the directory to bind the album to
+     */
+    public void createFolderAlbum(String albumName, File directory) {
+        // if the album name is not null and doesn't already exist, create the album
+        if (albumName == null || albumName.isBlank()) {
+            errorAlert("Error", "Invalid Album Name", "The album name is invalid. Make sure the name has non-whitespace characters.");
+            return;
+        }
 
-            Pane root;
-            try {
-                root = loader.load();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        for (String name : obsList) {
+            if (fixAlbumName(name).equals(albumName)) {
+                errorAlert("Error", "Invalid Album Name", "The album name is invalid. The album already exists.");
+                return;
             }
+        }
 
-            HomepageController homepageController = loader.getController();
-            Stage stage = (Stage) albumListView.getScene().getWindow();
-            homepageController.start(user, app);
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
+        // the first scan of the directory fills the album in the background
+        FolderAlbum album = user.createFolderAlbum(albumName, directory);
+        if (album == null) {
+            errorAlert("Error", "Invalid Album Name", "The album name is invalid. The album already exists.");
+            return;
+        }
+        FolderSync.start(album, Platform::runLater);
+    }
 
-        } else {
-            errorAlert("Error", "Invalid Album Name", "The album name is invalid.");
+    /**
+     * Method to update the rows of the albums that changed, keeping the selection.
+     * The rows are updated in place instead of reloading the homepage, and each album
+     * is shown again once however many of its photos changed
+     * @param events: the changes to the model since the last update
+     */
+    private void modelChanged(List<ModelEvent> events) {
+        // once the list is no longer shown, stop listening
+        if (albumListView.getScene() == null || albumListView.getScene().getWindow() == null) {
+            modelSubscription.cancel();
+            return;
+        }
+        int selected = albumListView.getSelectionModel().getSelectedIndex();
+        Set<Album> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ModelEvent event : events) {
+            switch (event) {
+                case ModelEvent.AlbumCreated created when created.user() == user -> {
+                    rows.add(created.album());
+                    obsList.add(getAlbumName(created.album()));
+                }
+                case ModelEvent.AlbumDeleted deleted when deleted.user() == user -> {
+                    int index = indexOf(deleted.album());
+                    if (index != -1) {
+                        rows.remove(index);
+                        obsList.remove(index);
+                    }
+                }
+                case ModelEvent.AlbumEvent albumEvent -> changed.add(albumEvent.album());
+                default -> {
+                }
+            }
+        }
+        for (Album album : changed) {
+            int index = indexOf(album);
+            if (index != -1) {
+                obsList.set(index, getAlbumName(album));
+            }
+        }
+        if (!obsList.isEmpty() && albumListView.getSelectionModel().getSelectedIndex() != selected) {
+            albumListView.getSelectionModel().select(Math.min(Math.max(selected, 0), obsList.size() - 1));
         }
+    }
 
+    /**
+     * Method to find the row of an album
+     * @param album: the album
+     * @return the index of the row, or -1 if the album is not in the list
+     */
+    private int indexOf(Album album) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i) == album) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
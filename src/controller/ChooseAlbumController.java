@@ -5,11 +5,8 @@ import java.util.List;
 
 // JavaFX imports
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.layout.AnchorPane;
-import javafx.scene.layout.Pane;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
@@ -63,6 +60,8 @@ public class ChooseAlbumController {
         this.currentAlbum = currentAlbum;
         this.selectedPhoto = selectedPhoto;
         this.user = user;
+        // the view is reused, forget the album chosen the last time it was shown
+        this.selectedAlbum = null;
         titleText.setText("Choose an album");
         albumListController.start(user, app);
 
@@ -87,15 +86,10 @@ public class ChooseAlbumController {
     public void backToGallery() {
         // get the current stage
         Stage stage = (Stage) selectAlbumButton.getScene().getWindow();
-        // load the gallery.fxml file
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/gallery.fxml"));
+        // show the gallery, it is loaded once and reused
         try {
-            Pane root = loader.load();
-            GalleryController galleryController = loader.getController();
+            GalleryController galleryController = ViewRegistry.show(stage, ViewRegistry.View.GALLERY);
             galleryController.start(this.app, this.currentAlbum, this.user);
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
         } catch (Exception e) {
             // show an alert if there's an error
             errorAlert("Error loading gallery", "Error loading gallery", "Error loading gallery");
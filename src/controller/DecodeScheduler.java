@@ -0,0 +1,211 @@
+package controller;
+
+// Java imports
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Central scheduler for all image decoding. Work is submitted with a priority class: images that
+ * are on screen first, then images decoded ahead of time, then thumbnails generated in the
+ * background. A fixed number of threads, one less than the number of cores so the FX thread
+ * always has one, runs the work, and each class may only use some of them, so background work
+ * can never take every thread away from what the user is looking at.
+ * <p>
+ * Work that is cancelled before it starts is removed from the queue, so views cancel the decodes
+ * of tiles that scrolled out of view or of scenes that were replaced. The queue depth, the time
+ * work waited and the time it took are tracked per class.
+ *
+ * @author ks1686
+ */
+public final class DecodeScheduler {
+
+    // the CPU budget for decoding, leave a core for the FX thread
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /**
+     * The priority classes, highest first.
+     */
+    public enum Priority {
+        /** images and tiles on screen, which may use every thread */
+        VISIBLE,
+        /** images the user is likely to look at next, which may use half of the threads */
+        PREFETCH,
+        /** thumbnails generated ahead of time for the thumbnail store, which use one thread */
+        BACKGROUND;
+
+        /**
+         * get the most threads work of this class may use at the same time
+         *
+         * @return the concurrency limit
+         */
+        public int getLimit() {
+            return switch (this) {
+                case VISIBLE -> THREADS;
+                case PREFETCH -> Math.max(1, THREADS / 2);
+                case BACKGROUND -> 1;
+            };
+        }
+    }
+
+    /**
+     * The metrics of a priority class.
+     *
+     * @param queued the number of jobs waiting to start
+     * @param running the number of jobs running
+     * @param completed the number of jobs that ran
+     * @param cancelled the number of jobs cancelled before they started
+     * @param averageWaitMillis the average time a job waited before it started
+     * @param averageRunMillis the average time a job took to run
+     */
+    public record Metrics(int queued, int running, long completed, long cancelled, double averageWaitMillis, double averageRunMillis) {
+    }
+
+    /**
+     * A job waiting to run.
+     */
+    private static final class Job {
+
+        private final Priority priority;
+        private final Runnable work;
+        private final long queuedAt = System.nanoTime();
+
+        Job(Priority priority, Runnable work) {
+            this.priority = priority;
+            this.work = work;
+        }
+    }
+
+    private static final ExecutorService THREAD_POOL = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "decode");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // guarded by the class lock
+    private static final Map<Priority, Deque<Job>> QUEUES = new EnumMap<>(Priority.class);
+    private static final Map<Priority, long[]> COUNTERS = new EnumMap<>(Priority.class);
+    private static int running;
+
+    // indexes into the counters of a class
+    private static final int RUNNING = 0;
+    private static final int COMPLETED = 1;
+    private static final int CANCELLED = 2;
+    private static final int WAIT_NANOS = 3;
+    private static final int RUN_NANOS = 4;
+
+    static {
+        for (Priority priority : Priority.values()) {
+            QUEUES.put(priority, new ArrayDeque<>());
+            COUNTERS.put(priority, new long[5]);
+        }
+    }
+
+    private DecodeScheduler() {
+    }
+
+    /**
+     * queue work with the given priority
+     *
+     * @param priority the priority class of the work
+     * @param work the work, which may throw to complete the future exceptionally
+     * @param <T> the type of the result
+     * @return a future completed with the result. Cancelling it before the work started removes
+     *         the work from the queue
+     */
+    public static <T> CompletableFuture<T> submit(Priority priority, Supplier<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Job job = new Job(priority, () -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(work.get());
+            } catch (RuntimeException | OutOfMemoryError e) {
+                future.completeExceptionally(e);
+            }
+        });
+        synchronized (DecodeScheduler.class) {
+            QUEUES.get(priority).addLast(job);
+            dispatch();
+        }
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                synchronized (DecodeScheduler.class) {
+                    if (QUEUES.get(priority).remove(job)) {
+                        COUNTERS.get(priority)[CANCELLED]++;
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * get the metrics of every priority class
+     *
+     * @return the metrics by class
+     */
+    public static synchronized Map<Priority, Metrics> getMetrics() {
+        Map<Priority, Metrics> metrics = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            long[] counters = COUNTERS.get(priority);
+            long completed = counters[COMPLETED];
+            metrics.put(priority, new Metrics(QUEUES.get(priority).size(), (int) counters[RUNNING], completed, counters[CANCELLED],
+                    completed == 0 ? 0 : counters[WAIT_NANOS] / 1e6 / completed,
+                    completed == 0 ? 0 : counters[RUN_NANOS] / 1e6 / completed));
+        }
+        return metrics;
+    }
+
+    /**
+     * start queued jobs while there are free threads, taking the highest class that is below its
+     * limit first. Must be called with the class lock held
+     */
+    private static void dispatch() {
+        while (running < THREADS) {
+            Job next = null;
+            for (Priority priority : Priority.values()) {
+                if (!QUEUES.get(priority).isEmpty() && COUNTERS.get(priority)[RUNNING] < priority.getLimit()) {
+                    next = QUEUES.get(priority).pollFirst();
+                    break;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            running++;
+            long[] counters = COUNTERS.get(next.priority);
+            counters[RUNNING]++;
+            counters[WAIT_NANOS] += System.nanoTime() - next.queuedAt;
+            Job job = next;
+            THREAD_POOL.execute(() -> run(job));
+        }
+    }
+
+    /**
+     * run a job on a pool thread and start the next one once it finished
+     *
+     * @param job the job
+     */
+    private static void run(Job job) {
+        long start = System.nanoTime();
+        try {
+            job.work.run();
+        } finally {
+            synchronized (DecodeScheduler.class) {
+                running--;
+                long[] counters = COUNTERS.get(job.priority);
+                counters[RUNNING]--;
+                counters[COMPLETED]++;
+                counters[RUN_NANOS] += System.nanoTime() - start;
+                dispatch();
+            }
+        }
+    }
+}
@@ -5,13 +5,10 @@ import java.util.Optional;
 
 // JavaFX imports
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextInputDialog;
 
 // Project imports
-import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
 import model.Album;
 import model.Photo;
@@ -63,6 +60,9 @@ public class EditTagsController {
         this.photo = photo;
         this.app = app;
         this.album = album;
+        // the view is reused, forget the selection of the last time it was shown
+        this.selectedTag = null;
+        this.selectedTagType = null;
 
         tagsListController.tagsListView.setOnMouseClicked(e -> {
             selectedTag = tagsListController.tagsListView.getSelectionModel().getSelectedItem();
@@ -82,7 +82,7 @@ public class EditTagsController {
             Photos.errorAlert("Error", "No tag type selected.", "Please select a tag type to delete.");
             return;
         }
-        user.getTagTypes().remove(selectedTagType);
+        user.removeTagType(selectedTagType);
         tagTypeListController.deleteTagType(selectedTagType);
         Photos.infoAlert("Success", "Tag type deleted successfully.", "The tag type has been removed from the photo.");
     }
@@ -104,9 +104,8 @@ public class EditTagsController {
             if (tagValue.isEmpty()) {
                 Photos.errorAlert("Error", "Tag Value cannot be empty.", "Please enter a valid tag value.");
             }
+            // the tags list and the gallery follow the photo's changes
             this.photo.addTag(selectedTagType.strip(), tagValue.strip());
-            // add to obsList in TagsListController
-            tagsListController.addTag(selectedTagType.strip(), tagValue.strip());
 
         }
         Photos.infoAlert("Success", "Tag added successfully.", "The tag has been added to the photo.");
@@ -127,7 +126,7 @@ public class EditTagsController {
             if (tagTypeValue.isEmpty()) {
                 Photos.errorAlert("Error", "Tag Type cannot be empty.", "Please enter a valid tag value.");
             }
-            user.getTagTypes().add(tagTypeValue.strip());
+            user.addTagType(tagTypeValue.strip());
             tagTypeListController.addTagType(tagTypeValue);
 
         }
@@ -143,7 +142,6 @@ public class EditTagsController {
         String tagValue = selectedTag.split(":")[1].strip();
 
         this.photo.deleteTag(tagType, tagValue);
-        tagsListController.deleteTag(tagType, tagValue);
         Photos.infoAlert("Success", "Tag " + selectedTag + " (previously selected) has been deleted successfully.", "The tag has been removed from the photo.");
     }
 
@@ -154,15 +152,10 @@ public class EditTagsController {
     private void backToGallery() {
         // get the current stage
         Stage stage = (Stage) addTagButton.getScene().getWindow();
-        // load the gallery.fxml file
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/gallery.fxml"));
+        // show the gallery, it is loaded once and reused
         try {
-            Pane root = loader.load();
-            GalleryController galleryController = loader.getController();
+            GalleryController galleryController = ViewRegistry.show(stage, ViewRegistry.View.GALLERY);
             galleryController.start(this.app, this.album, this.user);
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
         } catch (Exception e) {
             // show an alert if there's an error
             Photos.errorAlert("Error loading gallery", "Error loading gallery", "Error loading gallery");
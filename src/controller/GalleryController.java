@@ -3,16 +3,16 @@ package controller;
 // Java Imports
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 // JavaFX Imports
+import javafx.application.Platform;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.AnchorPane;
-import javafx.scene.layout.Pane;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
@@ -21,7 +21,15 @@ import model.Photos;
 import model.User;
 import model.Album;
 import model.Photo;
+import model.FolderAlbum;
+import model.FolderSync;
+import model.ModelEvent;
+import model.ModelEventBus;
+import model.PerceptualHash;
+import model.PhotoImporter;
+import model.SimilarityIndex;
 import static model.Photos.errorAlert;
+import static model.Photos.reportAlert;
 
 /**
  * GalleryController class is the controller for the gallery view. It allows the user to add photos to the album, remove
@@ -36,6 +44,7 @@ public class GalleryController {
     public Button removePhotoButton;
     public Button setCaptionButton;
     public Button displaySeparatelyButton;
+    public Button findSimilarButton;
     public Button editTagsButton;
     public Button backToAlbums;
     @FXML protected GalleryImageViewController galleryViewController;
@@ -45,6 +54,12 @@ public class GalleryController {
     private Album album;
     private User user;
 
+    // keeps the gallery current while a folder album is shown
+    private final FolderSync.Listener folderListener = this::folderChanged;
+
+    // patches the tiles of the photos that were added, removed or changed
+    private ModelEventBus.Subscription modelSubscription;
+
     @FXML
     private Button addPhotoButton;
 
@@ -69,29 +84,103 @@ public class GalleryController {
      * @param user: the current user
      */
     public void start(Photos app, Album album, User user) {
-        galleryViewController.start(album);
+        // the view is reused, stop following the album it showed before
+        if (modelSubscription != null) {
+            modelSubscription.cancel();
+        }
+        if (this.album != null) {
+            if (this.album instanceof FolderAlbum previous && FolderSync.get(previous) != null) {
+                FolderSync.get(previous).removeListener(folderListener);
+            }
+        }
+
+        galleryViewController.start(user, album);
         this.app = app;
         this.album = album;
         this.user=user;
+
+        // update only the affected tiles when the album or its photos change
+        modelSubscription = ModelEventBus.subscribe(ModelEvent.class, Platform::runLater, this::modelChanged);
+
+        // folder albums can change while the gallery is shown
+        if (album instanceof FolderAlbum folderAlbum && FolderSync.get(folderAlbum) != null) {
+            FolderSync.get(folderAlbum).addListener(folderListener);
+        }
     }
 
     /**
-     * Method to add a photo to the album
+     * Method to update the tiles of the photos that were added, removed or changed
+     * @param events: the changes to the model since the last update
+     */
+    private void modelChanged(List<ModelEvent> events) {
+        // once the gallery is no longer shown, stop listening
+        if (addPhotoButton.getScene() == null || addPhotoButton.getScene().getWindow() == null) {
+            modelSubscription.cancel();
+            return;
+        }
+        for (ModelEvent event : events) {
+            switch (event) {
+                case ModelEvent.PhotoAdded added when added.album() == album ->
+                        galleryViewController.insertIntoGallery(added.photo(), added.index());
+                case ModelEvent.PhotoRemoved removed when removed.album() == album ->
+                        galleryViewController.removeFromGallery(removed.index());
+                case ModelEvent.PhotoChanged changed when changed.album() == album ->
+                        galleryViewController.refreshInGallery(changed.photo());
+                // a caption or tag changed, the photo may be in this album
+                case ModelEvent.PhotoEvent changed -> galleryViewController.refreshInGallery(changed.photo());
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to update the gallery after the folder of a folder album changed
+     * @param folderAlbum: the album that changed
+     * @param changes: the changes to the album
+     */
+    private void folderChanged(FolderAlbum folderAlbum, FolderSync.Changes changes) {
+        // once the gallery is no longer shown, stop listening
+        if (folderAlbum != album || addPhotoButton.getScene() == null || addPhotoButton.getScene().getWindow() == null) {
+            FolderSync sync = FolderSync.get(folderAlbum);
+            if (sync != null) {
+                sync.removeListener(folderListener);
+            }
+            return;
+        }
+
+        // the model events patch the tiles, free the images of the old files
+        for (Photo photo : changes.modified()) {
+            ImageCache.invalidate(photo);
+        }
+    }
+
+    /**
+     * Method to add photos to the album. The selected files are loaded in the background and
+     * any file whose content is already in the user's library is not imported again.
      */
     public void addPhoto() {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Open Resource File");
-        File file = fileChooser.showOpenDialog(null);
-        if (file != null) {
-            String filepath = file.getAbsolutePath();
-            Photo photo = new Photo(filepath);
-            album.addPhoto(photo);
-            
-            galleryViewController.addToGallery(photo);
-            
-        } else {
+        fileChooser.setTitle("Open Resource Files");
+        List<File> files = fileChooser.showOpenMultipleDialog(null);
+        if (files == null || files.isEmpty()) {
             errorAlert("Invalid image", null, null);
+            return;
         }
+
+        // the library is indexed on the worker pool while the files load, hashing old photos reads their files
+        PhotoImporter.load(files).thenCombine(PhotoImporter.index(List.of(user)), Map::entry)
+                .whenComplete((loaded, error) -> Platform.runLater(() -> {
+                    if (error != null) {
+                        errorAlert("Import Photos", "Failed to import the photos", error.getMessage());
+                        return;
+                    }
+                    // add the loaded photos on the FX thread, checking them against the whole library
+                    PhotoImporter.ImportResult result = loaded.getKey().addTo(album, loaded.getValue());
+                    if (result.hasNotices()) {
+                        reportAlert("Import Photos", "Some photos were not imported as new files", result.toString());
+                    }
+                }));
     }
 
     /**
@@ -102,13 +191,8 @@ public class GalleryController {
         // get the selected photo
         Photo selectedPhoto = galleryViewController.getSelectedPhoto();
 
-        // remove the photo from the album
+        // remove the photo from the album, its removal event removes the tile
         album.removePhoto(selectedPhoto);
-
-        // clear the gallery image view
-        galleryViewController.getGalleryImageView().getChildren().clear();
-        galleryViewController.start(album);
-        // messy but works. could also do this for addphoto, but it's not necessary
     }
 
     /**
@@ -138,11 +222,10 @@ public class GalleryController {
             selectedPhoto.setCaption(null);
         } else {
             errorAlert("Set Caption", "Invalid Caption", "This is the existing caption.");
+            return;
         }
 
-        // clear the gallery image view
-        galleryViewController.getGalleryImageView().getChildren().clear();
-        galleryViewController.start(album);
+        // the photo publishes the change, only its tile is updated
 
     }
 
@@ -153,25 +236,73 @@ public class GalleryController {
     public void displaySeparately() {
         // get the selected photo
         Photo selectedPhoto = galleryViewController.getSelectedPhoto();
-        // load the separate photo display controller without closing the current window
-        FXMLLoader loader = new FXMLLoader();
-        loader.setLocation(getClass().getResource("/view/separatephotodisplay.fxml"));
-
-        // change below so that it doesn't close the current window
+        // show the photo in a window of its own, without closing the current window
         try {
-            Pane root = loader.load();
-            SeparatePhotoDisplayController separatePhotoDisplayController = loader.getController();
             Stage stage = new Stage();
-            separatePhotoDisplayController.start(selectedPhoto);
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
+            SeparatePhotoDisplayController separatePhotoDisplayController = ViewRegistry.show(stage, ViewRegistry.View.SEPARATE_PHOTO_DISPLAY);
+            separatePhotoDisplayController.start(user, selectedPhoto);
+            // cancel the decodes that are still running once the window is closed
+            stage.setOnHidden(e -> separatePhotoDisplayController.stop());
         } catch (IOException e) {
             // show an error alert that the separate photo display screen could not be loaded
             errorAlert("Display Separately", "Failed to load separate photo display screen", "Failed to load separate photo display screen");
         }
     }
 
+    /**
+     * Method to find the photos in the user's library that look like the selected photo
+     */
+    @FXML
+    public void findSimilar() {
+        Photo selectedPhoto = galleryViewController.getSelectedPhoto();
+        if (selectedPhoto == null) {
+            errorAlert("Find Similar", "No photo selected", "No photo selected");
+            return;
+        }
+
+        // the index is kept for the user and built in the background, hashing the selected photo may decode it too
+        SimilarityIndex.forUser(user)
+                .thenApplyAsync(index -> index.findSimilar(selectedPhoto, PerceptualHash.NEAR_DUPLICATE_DISTANCE))
+                .whenComplete((photos, error) -> Platform.runLater(() -> {
+                    if (error != null) {
+                        errorAlert("Find Similar", "Failed to find similar photos", error.getMessage());
+                    } else {
+                        showSimilar(photos);
+                    }
+                }));
+    }
+
+    /**
+     * Method to show the photos found by findSimilar in the search results view
+     * @param photos: the similar photos
+     */
+    private void showSimilar(List<Photo> photos) {
+        if (photos.isEmpty()) {
+            Photos.infoAlert("Find Similar", "No similar photos found", "No other photo in your albums looks like the selected photo.");
+            return;
+        }
+
+        // go through the user's albums. if the album name is the same as the temp album name, keep appending a number to the end until it's unique
+        String tempAlbumName = "Similar Photos";
+        int count = 1;
+        String uniqueAlbumName = tempAlbumName;
+        while (user.getAlbum(uniqueAlbumName) != null) {
+            uniqueAlbumName = tempAlbumName + count;
+            count++;
+        }
+
+        // create a new, temporary album to store the similar photos
+        Album similarPhotos = new Album(uniqueAlbumName, photos);
+        try {
+            Stage stage = (Stage) findSimilarButton.getScene().getWindow();
+            SearchResultsController searchResultsController = ViewRegistry.show(stage, ViewRegistry.View.SEARCH_RESULTS);
+            searchResultsController.start(app, user, similarPhotos);
+        } catch (IOException e) {
+            e.printStackTrace();
+            errorAlert("Find Similar", "Failed to load search results screen", "Failed to load search results screen");
+        }
+    }
+
     /**
      * Method to edit the tags for a photo
      */
@@ -183,17 +314,11 @@ public class GalleryController {
             errorAlert("Edit Tags", "No photo selected", "No photo selected");
             return;
         }
-        FXMLLoader loader = new FXMLLoader();
-        loader.setLocation(getClass().getResource("/view/edittags.fxml"));
         try {
-            Pane root = loader.load();
-            EditTagsController EditTagsController = loader.getController();
-            EditTagsController.start(user, app, selectedPhoto, album);
-            Scene scene = new Scene(root, 800, 600);
             // get the current stage
             Stage stage = (Stage) editTagsButton.getScene().getWindow();
-            stage.setScene(scene);
-            stage.show();
+            EditTagsController EditTagsController = ViewRegistry.show(stage, ViewRegistry.View.EDIT_TAGS);
+            EditTagsController.start(user, app, selectedPhoto, album);
         } catch (IOException e) {
             e.printStackTrace();
             errorAlert("Edit Tags", "Failed to load edit tags screen", "Failed to load edit tags screen");
@@ -207,23 +332,15 @@ public class GalleryController {
     public void copyToAlbum()  {
         // get the selected photo
         Photo selectedPhoto = galleryViewController.getSelectedPhoto();
-        // load the choose album controller
-        FXMLLoader loader = new FXMLLoader();
-        loader.setLocation(getClass().getResource("/view/choosealbum.fxml"));
         try {
-            Pane root = loader.load();
-            ChooseAlbumController chooseAlbumController = loader.getController();
             // get the current stage
             Stage stage = (Stage) copyToAlbumButton.getScene().getWindow();
-            // start the choose album controller
+            // show the choose album screen and start its controller
+            ChooseAlbumController chooseAlbumController = ViewRegistry.show(stage, ViewRegistry.View.CHOOSE_ALBUM);
             chooseAlbumController.start(this.app, this.album, selectedPhoto, this.user);
 
             //set text of selectAlbumButton to "Copy to Album"
             chooseAlbumController.getSelectAlbumButton().setText("Copy to Album");
-            // set the scene
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
         } catch (IOException e) {
             e.printStackTrace();
             // show an error alert that the choose album screen could not be loaded
@@ -237,18 +354,12 @@ public class GalleryController {
     @FXML
     public void moveToAlbum() {
         Photo selectedPhoto = galleryViewController.getSelectedPhoto();
-        FXMLLoader loader = new FXMLLoader();
-        loader.setLocation(getClass().getResource("/view/choosealbum.fxml"));
         try {
-            Pane root = loader.load();
-            ChooseAlbumController chooseAlbumController = loader.getController();
             Stage stage = (Stage) moveToAlbumButton.getScene().getWindow();
+            ChooseAlbumController chooseAlbumController = ViewRegistry.show(stage, ViewRegistry.View.CHOOSE_ALBUM);
             chooseAlbumController.start(this.app, this.album, selectedPhoto, this.user);
             // get the selectAlbumButton and set the text to "Move to Album"
             chooseAlbumController.getSelectAlbumButton().setText("Move to Album");
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
         } catch (IOException e) {
             e.printStackTrace();
             errorAlert("Move to Album", "Failed to load choose album screen", "Failed to load choose album screen");
@@ -263,14 +374,10 @@ public class GalleryController {
     public void backToHomepage() {
         // get the current stage
         Stage stage = (Stage) addPhotoButton.getScene().getWindow();
-        // load the homepage.fxml file
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/homepage.fxml"));
+        // show the homepage, it is loaded once and reused
         try {
-            Pane root = loader.load();
-            HomepageController controller = loader.getController();
+            HomepageController controller = ViewRegistry.show(stage, ViewRegistry.View.HOMEPAGE);
             controller.start(this.user, this.app);
-            stage.setScene(new Scene(root, 800, 600));
-            stage.show();
         } catch (IOException e) {
             e.printStackTrace();
             // show an error alert that the homepage screen could not be returned to
@@ -286,21 +393,17 @@ public class GalleryController {
         Photo selectedPhoto = galleryViewController.getSelectedPhoto();
         // get the current album
         Album currentAlbum = this.album;
-        // load the slideshow view controller without closing the current window
-        FXMLLoader loader = new FXMLLoader();
-        loader.setLocation(getClass().getResource("/view/slideshowview.fxml"));
+        // show the slideshow in a window of its own, without closing the current window
         try {
-            Pane root = loader.load();
-            SlideshowViewController slideshowViewController = loader.getController();
             Stage stage = new Stage();
+            SlideshowViewController slideshowViewController = ViewRegistry.show(stage, ViewRegistry.View.SLIDESHOW);
             slideshowViewController.start(selectedPhoto, currentAlbum);
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
+            // stop autoplay and the decodes ahead once the slideshow is closed
+            stage.setOnHidden(e -> slideshowViewController.stop());
         } catch (IOException e) {
             e.printStackTrace();
             // show an error alert that the slideshow screen could not be loaded
             errorAlert("Open Slideshow", "Failed to load slideshow screen", "Failed to load slideshow screen");
         }
     }
-}
\ No newline at end of file
+}
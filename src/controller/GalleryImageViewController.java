@@ -1,36 +1,126 @@
 package controller;
 
 // Java imports
-import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 // JavaFX imports
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.layout.TilePane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
-import javafx.scene.text.Text;
+import javafx.scene.text.TextAlignment;
+import javafx.stage.Window;
 
 // Project imports
+import controller.DecodeScheduler.Priority;
 import model.Album;
 import model.Photo;
+import model.User;
 
 /**
  * GalleryImageViewController class to control the gallery image view
  * This class is responsible for displaying the photos in the gallery
  * and handling the selection of a photo.
+ * <p>
+ * The gallery is a list of rows with a fixed height, so only the rows in the viewport have
+ * cells. Cells are recycled while scrolling and bind their tiles to a row's photos when they
+ * are reused; thumbnails are requested at that moment, along with the thumbnails of the rows
+ * just below, so the scene graph and the number of decoded images stay the same size however
+ * large the album is. Thumbnails of visible tiles are decoded before the prefetched rows, and
+ * the queued decodes of a cell are cancelled when it is reused for another row, or when the
+ * gallery's scene is taken off its window.
  *
  * @author jacobjude
  * @author ks1686
  */
 public class GalleryImageViewController  {
 
-    @FXML private TilePane galleryImageView;
+    // the largest width and height of a photo in the gallery
+    private static final double TILE_SIZE = ThumbnailService.THUMBNAIL_SIZE;
+
+    // the number of photos in a row of the gallery
+    private static final int COLUMNS = 3;
+
+    // the space between the tiles of a row, and the height of a row including its caption
+    private static final double TILE_GAP = 40;
+    private static final double CAPTION_HEIGHT = 30;
+    private static final double ROW_HEIGHT = TILE_SIZE + CAPTION_HEIGHT + 40;
+
+    // the number of rows past the viewport whose thumbnails are requested ahead of time
+    private static final int PREFETCH_ROWS = 2;
+
+    // shown in a tile until its thumbnail is ready, and kept if the thumbnail cannot be decoded
+    private static final String PLACEHOLDER_STYLE = "-fx-background-color: #e0e0e0;";
+
+    @FXML private ListView<List<Photo>> galleryImageView;
+
+    // the photos of the gallery, and the same photos split into rows for the list
+    private final List<Photo> photos = new ArrayList<>();
+    private final ObservableList<List<Photo>> rows = FXCollections.observableArrayList();
+
+    // the cells the list created, so their decodes can be cancelled when the scene is replaced
+    private final List<RowCell> cells = new ArrayList<>();
 
     // local variable to store the selected photo
     private Photo selectedPhoto;
 
+    // the user whose photos are shown
+    private User user;
+
+    /**
+     * Method to set up the list once the view is loaded
+     */
+    @FXML
+    public void initialize() {
+        galleryImageView.setItems(rows);
+        // every row has the same height, so the list never measures its cells
+        galleryImageView.setFixedCellSize(ROW_HEIGHT);
+        galleryImageView.setCellFactory(list -> {
+            RowCell cell = new RowCell();
+            cells.add(cell);
+            return cell;
+        });
+
+        // stop decoding for a gallery that is no longer shown, and bind the cells again if it comes back
+        galleryImageView.sceneProperty().addListener((observable, oldScene, scene) -> {
+            if (scene != null) {
+                scene.windowProperty().addListener((windowObservable, oldWindow, window) -> {
+                    if (galleryImageView.getScene() == scene) {
+                        windowChanged(window);
+                    }
+                });
+            } else {
+                windowChanged(null);
+            }
+        });
+    }
+
+    /**
+     * Method to cancel the queued decodes when the gallery leaves its window, and to rebind the
+     * cells whose decodes were cancelled when it is shown again
+     * @param window: the new window of the gallery, or null if it is not shown
+     */
+    private void windowChanged(Window window) {
+        if (window == null) {
+            for (RowCell cell : cells) {
+                cell.cancel();
+            }
+        } else {
+            galleryImageView.refresh();
+        }
+    }
+
     /**
      * Constructor for the GalleryImageViewController
      * @return a new instance of the GalleryImageViewController
@@ -44,66 +134,288 @@ public class GalleryImageViewController  {
      * @param photo: the photo to add to the gallery
      */
     protected void addToGallery(Photo photo) {
-        // get the photo
-        String filepath = photo.getFilePath();
-        Image image = new Image(new File(filepath).toURI().toString());
-
-        // create an image view
-        ImageView imageView = new ImageView(image);
-        imageView.setFitWidth(150);
-        imageView.setFitHeight(150);
-        imageView.setPreserveRatio(true);
-
-        // create a text view for the caption of the photo
-        Text caption = new Text(photo.getCaption());
-        caption.setWrappingWidth(150);
-        caption.setStyle("-fx-font-size: 10px;");
-        caption.setTextAlignment(javafx.scene.text.TextAlignment.CENTER);
+        photos.add(photo);
+        if (rows.isEmpty() || rows.getLast().size() == COLUMNS) {
+            rows.add(List.of(photo));
+        } else {
+            // rows are immutable, so replacing the last one tells the list to rebind its cell
+            List<Photo> row = new ArrayList<>(rows.getLast());
+            row.add(photo);
+            rows.set(rows.size() - 1, List.copyOf(row));
+        }
+    }
 
-        // create a vbox to hold the image view and the caption
-        VBox container = new VBox(imageView, caption);
-        container.setAlignment(javafx.geometry.Pos.CENTER);
-        container.setSpacing(5);
+    /**
+     * Method to insert a photo into the gallery, moving the photos after it along
+     * @param photo: the photo to insert
+     * @param index: the position of the photo in the album
+     */
+    protected void insertIntoGallery(Photo photo, int index) {
+        if (index >= photos.size()) {
+            addToGallery(photo);
+            return;
+        }
+        photos.add(index, photo);
+        resplitFrom(index);
+    }
 
+    /**
+     * Method to remove a photo from the gallery, moving the photos after it back
+     * @param index: the position the photo had in the album
+     */
+    protected void removeFromGallery(int index) {
+        if (index < 0 || index >= photos.size()) {
+            return;
+        }
+        if (photos.remove(index) == selectedPhoto) {
+            selectedPhoto = null;
+        }
+        resplitFrom(index);
+    }
 
-        // add the container to the gallery image view
-        container.setOnMouseClicked(e -> {
+    /**
+     * Method to show the new caption or file of a photo. Only the row holding the photo is
+     * rebound, and its other tiles keep their thumbnails
+     * @param photo: the photo that changed
+     */
+    protected void refreshInGallery(Photo photo) {
+        int index = photos.indexOf(photo);
+        if (index < 0) {
+            return;
+        }
+        int row = index / COLUMNS;
+        rows.set(row, List.copyOf(rows.get(row)));
+    }
 
-            // set the selected photo
-            selectedPhoto = photo;
+    /**
+     * Method to split the photos from the given position on into rows again. The rows before it
+     * are untouched, and the list only rebinds the cells that are visible
+     * @param index: the position of the first photo that moved
+     */
+    private void resplitFrom(int index) {
+        int firstRow = index / COLUMNS;
+        List<List<Photo>> tail = new ArrayList<>();
+        for (int i = firstRow * COLUMNS; i < photos.size(); i += COLUMNS) {
+            tail.add(List.copyOf(photos.subList(i, Math.min(i + COLUMNS, photos.size()))));
+        }
+        // two list changes however many rows moved, and tiles bound to the same photo keep their thumbnails
+        rows.remove(firstRow, rows.size());
+        rows.addAll(tail);
+    }
 
-        });
+    /**
+     * Method to remove every photo from the gallery
+     */
+    public void clear() {
+        photos.clear();
+        rows.clear();
+        // the view is reused, a photo selected in the album shown before is not in this one
+        selectedPhoto = null;
+    }
 
-        galleryImageView.getChildren().add(container);
-        
+    /**
+     * Method to get the width of a photo once it is scaled to fit in a tile
+     * @param photo: the photo
+     * @return the scaled width, or the tile size if the dimensions of the photo are unknown
+     */
+    private static double fitWidth(Photo photo) {
+        if (photo.getWidth() == 0 || photo.getHeight() == 0) {
+            return TILE_SIZE;
+        }
+        return photo.getWidth() * Math.min(TILE_SIZE / photo.getWidth(), TILE_SIZE / photo.getHeight());
+    }
 
+    /**
+     * Method to get the height of a photo once it is scaled to fit in a tile
+     * @param photo: the photo
+     * @return the scaled height, or the tile size if the dimensions of the photo are unknown
+     */
+    private static double fitHeight(Photo photo) {
+        if (photo.getWidth() == 0 || photo.getHeight() == 0) {
+            return TILE_SIZE;
+        }
+        return photo.getHeight() * Math.min(TILE_SIZE / photo.getWidth(), TILE_SIZE / photo.getHeight());
     }
 
     /**
      * Method to start the gallery image view
+     * @param user: the user the album belongs to, whose thumbnail store the tiles use
      * @param album: the album to display in the gallery
      */
-    public void start(Album album) {
-        // set the album
-
-        // get the photos from the album
-        List<Photo> photos = album.getPhotos();
-
-        // add the photos to the gallery image view
-        for (Photo photo : photos) {
-
-            // get the photo
-            // add the photo to the gallery
-            addToGallery(photo);
+    public void start(User user, Album album) {
+        this.user = user;
+        // split the photos into rows in one pass, so the list is only updated once
+        clear();
+        photos.addAll(album.getPhotos());
+        List<List<Photo>> split = new ArrayList<>();
+        for (int i = 0; i < photos.size(); i += COLUMNS) {
+            split.add(List.copyOf(photos.subList(i, Math.min(i + COLUMNS, photos.size()))));
         }
+        rows.setAll(split);
     }
 
     /**
      * Method to get the gallery image view
      * @return the gallery image view
      */
-    public TilePane getGalleryImageView() {
+    public ListView<List<Photo>> getGalleryImageView() {
         return galleryImageView;
     }
 
-}
\ No newline at end of file
+    /**
+     * A row of the gallery. The tiles are created once per cell and rebound whenever the list
+     * reuses the cell for another row.
+     */
+    private class RowCell extends ListCell<List<Photo>> {
+
+        private final Tile[] tiles = new Tile[COLUMNS];
+        private final HBox box = new HBox(TILE_GAP);
+
+        // the thumbnails requested ahead of time for the rows below this one
+        private final List<CompletableFuture<Image>> prefetches = new ArrayList<>();
+
+        RowCell() {
+            for (int i = 0; i < COLUMNS; i++) {
+                tiles[i] = new Tile();
+                box.getChildren().add(tiles[i].container);
+            }
+            box.setAlignment(Pos.CENTER_LEFT);
+            // rows are not selectable, a photo is selected by clicking its tile
+            setStyle("-fx-background-color: transparent;");
+        }
+
+        @Override
+        protected void updateItem(List<Photo> row, boolean empty) {
+            super.updateItem(row, empty);
+            cancelPrefetches();
+            if (empty || row == null) {
+                for (Tile tile : tiles) {
+                    tile.bind(null);
+                }
+                setGraphic(null);
+                return;
+            }
+
+            for (int i = 0; i < COLUMNS; i++) {
+                tiles[i].bind(i < row.size() ? row.get(i) : null);
+            }
+            setGraphic(box);
+
+            // warm the thumbnail cache for the rows about to scroll into view
+            int ahead = getIndex() + PREFETCH_ROWS;
+            if (ahead < rows.size()) {
+                for (Photo photo : rows.get(ahead)) {
+                    prefetches.add(ThumbnailService.request(user, photo, Priority.PREFETCH));
+                }
+            }
+        }
+
+        /**
+         * Method to cancel the decodes of the cell that did not finish
+         */
+        void cancel() {
+            cancelPrefetches();
+            for (Tile tile : tiles) {
+                tile.cancel();
+            }
+        }
+
+        /**
+         * Method to cancel the prefetches of the cell, the rows below it changed
+         */
+        private void cancelPrefetches() {
+            for (CompletableFuture<Image> prefetch : prefetches) {
+                prefetch.cancel(false);
+            }
+            prefetches.clear();
+        }
+    }
+
+    /**
+     * A single photo of a row: a frame holding the thumbnail, and the caption below it.
+     */
+    private class Tile {
+
+        private final ImageView imageView = new ImageView();
+        private final StackPane frame = new StackPane(imageView);
+        private final Label caption = new Label();
+        private final VBox container = new VBox(frame, caption);
+
+        // the photo the tile shows, used to drop thumbnails that arrive after the tile was reused
+        private Photo photo;
+
+        // the decode of the thumbnail, until it is shown
+        private CompletableFuture<Image> load;
+
+        Tile() {
+            imageView.setFitWidth(TILE_SIZE);
+            imageView.setFitHeight(TILE_SIZE);
+            imageView.setPreserveRatio(true);
+
+            caption.setWrapText(true);
+            caption.setPrefWidth(TILE_SIZE);
+            caption.setMaxHeight(CAPTION_HEIGHT);
+            caption.setStyle("-fx-font-size: 10px;");
+            caption.setTextAlignment(TextAlignment.CENTER);
+
+            container.setAlignment(Pos.CENTER);
+            container.setSpacing(5);
+            container.setPrefWidth(TILE_SIZE);
+
+            // set the selected photo
+            container.setOnMouseClicked(e -> selectedPhoto = photo);
+        }
+
+        /**
+         * Method to show a photo in the tile
+         * @param photo: the photo to show, or null to hide the tile
+         */
+        void bind(Photo photo) {
+            container.setVisible(photo != null);
+            if (photo != null) {
+                caption.setText(photo.isMissing() ? "[missing] " + photo.getCaption() : photo.getCaption());
+            }
+            if (photo == this.photo && photo != null && imageView.getImage() != null && imageView.getImage() == ThumbnailService.peek(photo)) {
+                // the row was rebound around the same photo and its file did not change, keep the thumbnail
+                return;
+            }
+            if (photo == this.photo && photo != null && load != null) {
+                // the thumbnail of the same photo is still decoding, keep its place in the queue
+                return;
+            }
+            cancel();
+            this.photo = photo;
+            imageView.setImage(null);
+            if (photo == null) {
+                return;
+            }
+
+            // reserve the final size of the image from the dimensions in the file header, so the tile is laid out before the image loads
+            frame.setMinSize(fitWidth(photo), fitHeight(photo));
+            frame.setPrefSize(fitWidth(photo), fitHeight(photo));
+            frame.setStyle(PLACEHOLDER_STYLE);
+
+            // decode the thumbnail in the background and swap it in for the placeholder
+            CompletableFuture<Image> future = ThumbnailService.request(user, photo);
+            load = future;
+            future.thenAccept(image -> Platform.runLater(() -> {
+                if (load == future) {
+                    load = null;
+                    imageView.setImage(image);
+                    frame.setStyle("");
+                }
+            }));
+        }
+
+        /**
+         * Method to cancel the decode of the thumbnail if it is still queued. The tile is bound
+         * again to show it
+         */
+        void cancel() {
+            if (load != null) {
+                load.cancel(false);
+                load = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package controller;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// JavaFX imports
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.util.Duration;
+
+// Project imports
+import controller.DecodeScheduler.Priority;
+import model.GifAnimation;
+
+/**
+ * Plays an animated GIF in a view that shows a single photo. Frames are decoded on demand, one
+ * at a time on the {@link DecodeScheduler}, a few frames ahead of the one shown. The decoded
+ * frames of one animation are bounded by bytes: an animation whose frames all fit is decoded
+ * once and then loops from memory, a larger one keeps only the frames just ahead of the one
+ * shown and decodes the rest again on the next loop. If a frame is not ready in time the
+ * animation waits for it instead of skipping it.
+ * <p>
+ * All methods must be called on the FX thread.
+ *
+ * @author ks1686
+ */
+public class GifPlayer {
+
+    // the most bytes the decoded frames and the canvas of one animation may take
+    private static final long MAX_FRAME_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * A decoded frame.
+     *
+     * @param index the index of the frame
+     * @param image the frame
+     * @param delay how long the frame is shown, in milliseconds
+     */
+    private record Frame(int index, Image image, int delay) {
+    }
+
+    private final File file;
+    private final double size;
+    private final Consumer<Image> display;
+
+    // set once the file is opened
+    private GifAnimation animation;
+    private int[] delays;
+
+    // the number of frames kept, counting the one shown
+    private int window;
+
+    // the decoded frames by index
+    private final Map<Integer, Image> frames = new HashMap<>();
+
+    // the frame shown, and the frame to show as soon as it is decoded, or -1
+    private int shown = -1;
+    private int waiting = 0;
+
+    // the open or the decode that is running, the reader decodes one frame at a time
+    private CompletableFuture<?> decode;
+    private PauseTransition timer;
+    private boolean closed;
+
+    private GifPlayer(File file, double size, Consumer<Image> display) {
+        this.file = file;
+        this.size = size;
+        this.display = display;
+    }
+
+    /**
+     * start playing a GIF
+     *
+     * @param file the GIF file
+     * @param size the largest width and height of the frames, or 0 for the size of the GIF
+     * @param display shows a frame, called on the FX thread
+     * @return the player, to stop it once the photo is no longer shown
+     */
+    public static GifPlayer play(File file, double size, Consumer<Image> display) {
+        GifPlayer player = new GifPlayer(file, size, display);
+        player.open();
+        return player;
+    }
+
+    /**
+     * stop the animation, cancel the decode that is queued and free the frames
+     */
+    public void stop() {
+        closed = true;
+        if (timer != null) {
+            timer.stop();
+        }
+        if (decode != null) {
+            decode.cancel(false);
+        }
+        frames.clear();
+        if (animation != null) {
+            close(animation);
+            animation = null;
+        }
+    }
+
+    /**
+     * open the file in the background, and start decoding frames once it is open
+     */
+    private void open() {
+        CompletableFuture<GifAnimation> future = DecodeScheduler.submit(Priority.VISIBLE, () -> {
+            try {
+                return GifAnimation.open(file, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        decode = future;
+        future.whenComplete((opened, error) -> Platform.runLater(() -> {
+            decode = null;
+            if (opened == null) {
+                // the still image stays
+                return;
+            }
+            if (closed) {
+                close(opened);
+                return;
+            }
+            animation = opened;
+            int count = opened.getFrameCount();
+            long frameBytes = (long) opened.getWidth() * opened.getHeight() * 4;
+            // the canvas the frames are composited on counts against the same bound
+            long available = Math.max(0, MAX_FRAME_BYTES - opened.getCanvasBytes());
+            // always keep the next frame too, so it can be decoded while the current one is shown
+            window = (int) Math.max(Math.min(count, 2), Math.min(count, available / frameBytes));
+            delays = new int[count];
+            decodeNext();
+        }));
+    }
+
+    /**
+     * decode the first frame of the window that is missing, unless a decode is running
+     */
+    private void decodeNext() {
+        if (closed || animation == null || decode != null) {
+            return;
+        }
+        int count = animation.getFrameCount();
+        int base = waiting >= 0 ? waiting : shown;
+        int next = -1;
+        for (int i = 0; i < window; i++) {
+            int index = (base + i) % count;
+            if (!frames.containsKey(index)) {
+                next = index;
+                break;
+            }
+        }
+        if (next < 0) {
+            return;
+        }
+
+        GifAnimation opened = animation;
+        int index = next;
+        CompletableFuture<Frame> future = DecodeScheduler.submit(Priority.VISIBLE, () -> {
+            try {
+                return new Frame(index, TiledImageLayer.toImage(opened.frame(index)), opened.getDelay(index));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        decode = future;
+        future.whenComplete((frame, error) -> Platform.runLater(() -> {
+            if (decode != future) {
+                return;
+            }
+            decode = null;
+            if (closed || frame == null) {
+                // a frame that cannot be decoded stops the animation on the frame before it
+                return;
+            }
+            frames.put(frame.index(), frame.image());
+            delays[frame.index()] = frame.delay();
+            if (frame.index() == waiting) {
+                show(frame.index());
+            } else {
+                decodeNext();
+            }
+        }));
+    }
+
+    /**
+     * show a frame, and show the next one once its delay is over
+     *
+     * @param index the index of the frame
+     */
+    private void show(int index) {
+        display.accept(frames.get(index));
+        shown = index;
+        waiting = -1;
+        evict();
+        if (animation.getFrameCount() > 1) {
+            timer = new PauseTransition(Duration.millis(delays[index]));
+            timer.setOnFinished(e -> advance());
+            timer.play();
+        }
+        decodeNext();
+    }
+
+    /**
+     * move on to the next frame, or wait for it if it is not decoded yet
+     */
+    private void advance() {
+        if (closed) {
+            return;
+        }
+        int next = (shown + 1) % animation.getFrameCount();
+        if (frames.containsKey(next)) {
+            show(next);
+        } else {
+            waiting = next;
+            decodeNext();
+        }
+    }
+
+    /**
+     * drop the frames outside the window that starts at the frame shown
+     */
+    private void evict() {
+        int count = animation.getFrameCount();
+        frames.keySet().removeIf(index -> Math.floorMod(index - shown, count) >= window);
+    }
+
+    /**
+     * close an animation once the frame it may be decoding is done, without waiting for it here
+     *
+     * @param opened the animation
+     */
+    private static void close(GifAnimation opened) {
+        DecodeScheduler.submit(Priority.VISIBLE, () -> {
+            opened.close();
+            return null;
+        });
+    }
+}
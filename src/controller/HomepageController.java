@@ -1,26 +1,40 @@
 package controller;
 
 // Java imports
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // JavaFX imports
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.AnchorPane;
-import javafx.scene.layout.Pane;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 // Project imports
 import model.Album;
+import model.PerceptualHash;
 import model.Photo;
+import model.PhotoSearch;
+import model.SimilarityIndex;
 import model.User;
 import model.Photos;
+import model.Session;
 
 /**
  * HomepageController class to control the homepage view
@@ -29,6 +43,9 @@ import model.Photos;
  * It also allows the user to delete, rename, create, and open albums.
  * It also allows the user to logout and quit the application.
  * It also allows the user to search for photos.
+ * The search runs as the user types, once typing pauses, on a background thread. A search that
+ * is out of date is cancelled, and the photos found so far are shown in a preview under the
+ * search bar while the search goes on.
  *
  * @author jacobjude
  * @author ks1686
@@ -39,23 +56,90 @@ public class HomepageController {
   public Button logoutButton;
   public Button renameAlbumButton;
   public Button createAlbumButton;
+  public Button createFolderAlbumButton;
   public Button openAlbumButton;
   public Button quitButton;
+  public Button nearDuplicatesButton;
     @FXML
     protected AlbumListController albumListController;
 
     @FXML protected TextField searchBarTextField;
+    @FXML protected ListView<Photo> searchPreviewListView;
     private Photos app;
 
+    // how long typing must pause before the query is searched
+    private static final Duration SEARCH_DELAY = Duration.millis(150);
+
+    // searches run one at a time, a new one starts once the stale one reached the end of a chunk
+    private static final ExecutorService SEARCHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PauseTransition searchDelay = new PauseTransition(SEARCH_DELAY);
+    private final Label searchStatus = new Label();
+
+    // the query of the last search, whether it is cancelled, and the photos it found
+    private String searchQuery;
+    private AtomicBoolean searchCancelled = new AtomicBoolean(true);
+    private final List<Photo> searchResults = new ArrayList<>();
+    private boolean searchDone;
+
+    // set when enter is pressed before the search is done, to open the results once it is
+    private boolean openWhenDone;
+
     // private user object
     private User user;
 
+    /**
+     * Method to set up the search preview once the view is loaded
+     */
+    @FXML
+    private void initialize() {
+        searchPreviewListView.setPlaceholder(searchStatus);
+        searchPreviewListView.setVisible(false);
+        searchPreviewListView.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(Photo photo, boolean empty) {
+                super.updateItem(photo, empty);
+                if (empty || photo == null) {
+                    setText(null);
+                } else if (photo.getCaption() == null || photo.getCaption().isEmpty()) {
+                    setText(new File(photo.getFilePath()).getName());
+                } else {
+                    setText(new File(photo.getFilePath()).getName() + " - " + photo.getCaption());
+                }
+            }
+        });
+        // double clicking the preview opens the results screen, like pressing enter
+        searchPreviewListView.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2) {
+                try {
+                    searchPhotos();
+                } catch (IOException e) {
+                    Photos.errorAlert("Search Error", "Failed to show search results", e.getMessage());
+                }
+            }
+        });
+
+        // typing only cancels the stale search and restarts the delay, so a key press costs next to nothing
+        searchDelay.setOnFinished(event -> startSearch());
+        searchBarTextField.textProperty().addListener((observable, oldText, newText) -> {
+            cancelSearch();
+            openWhenDone = false;
+            searchDelay.playFromStart();
+        });
+    }
+
     /**
      * Method to start the homepage controller
      * @param user: the user object
      * @param app: the Photos application
      */
     public void start(User user, Photos app) { // TODO: make a User object and pass that instead
+        // the view is reused, so clear what was typed the last time it was shown
+        searchBarTextField.clear();
         albumListController.start(user, app);
         this.app = app;
         this.user = user;
@@ -88,7 +172,8 @@ public class HomepageController {
      */
     @FXML
     private void logout() {
-        app.logout(app);
+        cancelSearch();
+        app.logout(Session.of(user.getUsername()));
         // close the current window
         Stage stage = (Stage) albumListController.albumListView.getScene().getWindow();
         stage.close();
@@ -150,39 +235,123 @@ public class HomepageController {
     }
 
     /**
-     * Method to check if a search query is valid
-     * @param query: the search query
-     * @return true if the search query is valid, false otherwise
+     * Method to create an album that is kept in sync with a directory on disk
      */
-    private boolean isValidSearchQuery(String query) {
-        if (query == null || query.isEmpty()) {
-            return false;
+    @FXML public void createFolderAlbum() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Choose Folder");
+        File directory = directoryChooser.showDialog(createFolderAlbumButton.getScene().getWindow());
+        if (directory == null) {
+            return;
         }
 
-        // query must be of the form MM/DD/YYYY-MM/DD/YYYY OR a tag in the form "key=value" OR a conjunction/disjunction of tags like "key=value AND key=value"m "key=value OR key=value"
-        return query.matches("\\d{2}/\\d{2}/\\d{4}-\\d{2}/\\d{2}/\\d{4}") || query.matches("\\w+=\\w+") || query.matches("\\w+=\\w+ (AND|OR) \\w+=\\w+");
+        TextInputDialog dialog = new TextInputDialog(directory.getName());
+        dialog.setTitle("Create Folder Album");
+        dialog.setHeaderText("Enter the name of the new album:");
+        dialog.setContentText("Album name:");
+
+        String albumName;
+        try {
+            albumName = dialog.showAndWait().get();
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        albumListController.createFolderAlbum(albumName, directory);
     }
 
     /**
-     * Method to search for photos
+     * Method to search for photos and show the results screen. The results of the search that
+     * ran while the user typed are used if it is done, otherwise the results screen opens once
+     * it is
      * @throws IOException: if the search results page cannot be loaded
      */
     @FXML public void searchPhotos() throws IOException {
         // string in the text bar
         String query = searchBarTextField.getText();
-        if (!(isValidSearchQuery(query))){
+        if (!(Album.isValidQuery(query))){
             Photos.errorAlert("Invalid Search Query", "Invalid Search Query", "Invalid Search Query");
             return;
         }
-        List<Photo> photos = user.searchAlbums(query);
+        if (searchDone && query.equals(searchQuery)) {
+            showSearchResults(new ArrayList<>(searchResults));
+            return;
+        }
+
+        openWhenDone = true;
+        if (!query.equals(searchQuery) || searchCancelled.get()) {
+            // do not wait for typing to pause
+            searchDelay.stop();
+            startSearch();
+        }
+    }
 
-        if (photos == null) {
-            Photos.errorAlert("Search Error", "Search query is invalid. ", "Hover over search bar and see the tooltip for more information.");
+    /**
+     * Method to start searching for the query in the search bar in the background, showing the
+     * photos found in the preview as they are found
+     */
+    private void startSearch() {
+        cancelSearch();
+        String query = searchBarTextField.getText();
+        if (user == null || !Album.isValidQuery(query)) {
+            // keep typing
+            searchPreviewListView.setVisible(false);
             return;
         }
-        
-        
 
+        PhotoSearch search = PhotoSearch.of(user, query);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        searchQuery = query;
+        searchCancelled = cancelled;
+        searchStatus.setText("Searching...");
+        searchPreviewListView.setVisible(true);
+
+        CompletableFuture.supplyAsync(() -> search.run(cancelled::get, matches -> Platform.runLater(() -> {
+            if (!cancelled.get()) {
+                searchResults.addAll(matches);
+                searchPreviewListView.getItems().addAll(matches);
+            }
+        })), SEARCHER).whenComplete((complete, error) -> Platform.runLater(() -> {
+            if (cancelled.get()) {
+                return;
+            }
+            if (error != null) {
+                cancelSearch();
+                searchStatus.setText("Search query is invalid");
+                if (openWhenDone) {
+                    openWhenDone = false;
+                    Photos.errorAlert("Search Error", "Search query is invalid. ", "Hover over search bar and see the tooltip for more information.");
+                }
+                return;
+            }
+            searchDone = true;
+            searchStatus.setText("No photos match");
+            if (openWhenDone) {
+                openWhenDone = false;
+                try {
+                    showSearchResults(new ArrayList<>(searchResults));
+                } catch (IOException e) {
+                    Photos.errorAlert("Search Error", "Failed to show search results", e.getMessage());
+                }
+            }
+        }));
+    }
+
+    /**
+     * Method to cancel the search that is running and clear its results
+     */
+    private void cancelSearch() {
+        searchCancelled.set(true);
+        searchDone = false;
+        searchResults.clear();
+        searchPreviewListView.getItems().clear();
+    }
+
+    /**
+     * Method to show the results screen for the photos found by a search
+     * @param photos: the photos found
+     * @throws IOException: if the search results page cannot be loaded
+     */
+    private void showSearchResults(List<Photo> photos) throws IOException {
         String tempAlbumName = "Search Results";
         // go through the user's albums. if the album name is the same as the temp album name, keep appending a number to the end until it's unique
         int count = 1;
@@ -193,25 +362,38 @@ public class HomepageController {
         }
 
         // create a new, temporary album to store the search results
-        Album searchResults = new Album(uniqueAlbumName, photos);
-        // load the gallery controller
-        FXMLLoader loader = new FXMLLoader();
-        loader.setLocation(getClass().getResource("/view/searchresults.fxml"));
-        Pane root = loader.load();
-        SearchResultsController searchResultsController = loader.getController();
-
-        // get the current stage
+        Album searchResultsAlbum = new Album(uniqueAlbumName, photos);
+        // show the search results screen, it is loaded once and reused
         Stage stage = (Stage) albumListController.albumListView.getScene().getWindow();
-        // start the gallery controller
-        
-        
-        // set the scene
-        Scene scene = new Scene(root, 800, 600);
-        searchResultsController.start(app, user, searchResults);
-        stage.setScene(scene);
-        stage.show();
-
+        SearchResultsController searchResultsController = ViewRegistry.show(stage, ViewRegistry.View.SEARCH_RESULTS);
+        searchResultsController.start(app, user, searchResultsAlbum);
+    }
 
+    /**
+     * Method to show a report of the groups of photos in the user's albums that look alike
+     */
+    @FXML public void nearDuplicates() {
+        nearDuplicatesButton.setDisable(true);
+        // the index is kept for the user and built in the background, grouping runs off the FX thread too
+        SimilarityIndex.forUser(user)
+                .thenApplyAsync(index -> index.getNearDuplicateGroups(PerceptualHash.NEAR_DUPLICATE_DISTANCE))
+                .whenComplete((groups, error) -> Platform.runLater(() -> {
+                    nearDuplicatesButton.setDisable(false);
+                    if (error != null) {
+                        Photos.errorAlert("Near Duplicates", "Failed to build the report", error.getMessage());
+                    } else if (groups.isEmpty()) {
+                        Photos.infoAlert("Near Duplicates", "No near duplicates found", "No two photos in your albums look alike.");
+                    } else {
+                        String report = "";
+                        for (List<Photo> group : groups) {
+                            report += "Group of " + group.size() + ":\n";
+                            for (Photo photo : group) {
+                                report += "  " + photo.getFilePath() + "\n";
+                            }
+                        }
+                        Photos.reportAlert("Near Duplicates", groups.size() + " group(s) of photos look alike", report);
+                    }
+                }));
     }
 
     /**
@@ -242,21 +424,11 @@ public class HomepageController {
 
         // if the album is not null, open the album
         if (album != null) {
-            // load the gallery controller
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(getClass().getResource("/view/gallery.fxml"));
-            Pane root = loader.load();
-            GalleryController galleryController = loader.getController();
-
-            // get the current stage
+            cancelSearch();
+            // show the gallery, it is loaded once and reused for every album
             Stage stage = (Stage) albumListController.albumListView.getScene().getWindow();
-            // start the gallery controller
-            
+            GalleryController galleryController = ViewRegistry.show(stage, ViewRegistry.View.GALLERY);
             galleryController.start(app, album, user);
-            // set the scene
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
         } else {
             // show an error alert that the album could not be opened
             Photos.errorAlert("Open Album", "Failed to open album", "Failed to open album");
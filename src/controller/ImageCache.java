@@ -0,0 +1,473 @@
+package controller;
+
+// Java imports
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// JavaFX imports
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.stage.Screen;
+
+// Project imports
+import controller.DecodeScheduler.Priority;
+import model.GifAnimation;
+import model.ImageProbe;
+import model.Photo;
+import model.RegionDecoder;
+
+/**
+ * Application wide cache of decoded images, shared by the gallery, the slideshow and the
+ * separate photo display so a photo is decoded once for each size it is shown at. Entries are
+ * keyed by the photo and the requested size, and the cache is bounded by the number of bytes
+ * the decoded pixels take: once the bound is exceeded the least recently used images are moved
+ * to soft references, where the garbage collector may reclaim them under memory pressure.
+ * <p>
+ * Decodes run on the {@link DecodeScheduler} with the priority of the request. Concurrent
+ * requests for the same image share one decode, which is moved up when a later request has a
+ * higher priority, for example when a photo that was being prefetched comes into view. Each
+ * caller gets its own future, and a queued decode whose callers all cancelled their futures is
+ * taken off the queue, so views can drop work that is no longer needed. Hits and misses are
+ * counted so the effect of the cache can be measured.
+ * <p>
+ * GIFs are cached as their first frame only, so an animation never fills the cache with frames.
+ *
+ * @author ks1686
+ */
+public final class ImageCache {
+
+    /**
+     * the size to request for an image decoded at its full resolution
+     */
+    public static final double FULL_SIZE = 0;
+
+    /**
+     * the size that fills the primary screen, used by the views that show a single photo
+     */
+    public static final double SCREEN_SIZE = screenSize();
+
+    // a quarter of the heap, and never more than 256 MB
+    private static final long MAX_BYTES = Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+
+    // keep evicted images reachable through soft references until the heap is short
+    private static final boolean SOFT_SPILL = true;
+
+    /**
+     * The key of a cached image. Photos compare by identity, so two photos pointing at the same
+     * file are cached separately, like the rest of the application treats them. The path and
+     * modification time of the file are part of the key, so a photo whose file was moved or
+     * edited never gets the image of its old file.
+     *
+     * @param photo the photo
+     * @param path the path of the file of the photo
+     * @param lastModified the modification time recorded for the file
+     * @param size the largest width and height the image was decoded at, or FULL_SIZE
+     */
+    private record Key(Photo photo, String path, long lastModified, double size) {
+
+        Key(Photo photo, double size) {
+            this(photo, photo.getFilePath(), photo.getLastModified(), size);
+        }
+    }
+
+    /**
+     * A spilled image, which remembers its key so it can be dropped from the map once the
+     * garbage collector cleared it.
+     */
+    private static final class Spilled extends SoftReference<Image> {
+
+        private final Key key;
+
+        Spilled(Key key, Image image) {
+            super(image, CLEARED);
+            this.key = key;
+        }
+    }
+
+    /**
+     * A decode that is queued or running, with the number of callers still waiting for it. The
+     * decode is queued again when its priority is raised, and whichever queued job starts first
+     * runs it.
+     */
+    private static final class Pending {
+
+        private final CompletableFuture<Image> result = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+        private final List<CompletableFuture<Void>> jobs = new CopyOnWriteArrayList<>();
+
+        // guarded by the PENDING map entry
+        private Priority priority;
+        private boolean started;
+    }
+
+    // access ordered, so iteration starts at the least recently used image
+    private static final LinkedHashMap<Key, Image> IMAGES = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<Key, Spilled> SPILLED = new HashMap<>();
+    private static final ReferenceQueue<Image> CLEARED = new ReferenceQueue<>();
+    private static final Map<Key, Pending> PENDING = new ConcurrentHashMap<>();
+    private static long bytes;
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private ImageCache() {
+    }
+
+    /**
+     * get the image of a photo decoded at the given size, decoding it in the background if it
+     * is not cached. The photo is about to be shown, so the decode has the visible priority
+     *
+     * @param photo the photo
+     * @param size the largest width and height of the image, or FULL_SIZE for the original
+     * @return a future completed with the image, or completed exceptionally if it cannot be decoded
+     */
+    public static CompletableFuture<Image> request(Photo photo, double size) {
+        return request(photo, size, Priority.VISIBLE);
+    }
+
+    /**
+     * get the image of a photo decoded at the given size, decoding it in the background with the
+     * given priority if it is not cached
+     *
+     * @param photo the photo
+     * @param size the largest width and height of the image, or FULL_SIZE for the original
+     * @param priority the priority of the decode
+     * @return a future completed with the image, or completed exceptionally if it cannot be decoded
+     */
+    public static CompletableFuture<Image> request(Photo photo, double size, Priority priority) {
+        double decodeSize = effectiveSize(photo, size);
+        File file = new File(photo.getFilePath());
+        String url = file.toURI().toString();
+        boolean huge = (long) photo.getWidth() * photo.getHeight() > TiledImageLayer.TILED_PIXELS;
+        boolean gif = photo.getFormat() == ImageProbe.Format.GIF;
+        return request(photo, decodeSize, priority, () -> {
+            if (gif) {
+                // a cached GIF is a still image, the views that animate it decode the frames themselves
+                try {
+                    return TiledImageLayer.toImage(GifAnimation.firstFrame(file, decodeSize));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if (huge && decodeSize != FULL_SIZE) {
+                return subsample(file, decodeSize);
+            }
+            Image image = decodeSize == FULL_SIZE ? new Image(url) : new Image(url, decodeSize, decodeSize, true, true);
+            if (image.isError()) {
+                throw new IllegalStateException("Could not decode " + url, image.getException());
+            }
+            return image;
+        });
+    }
+
+    /**
+     * get the image of a photo decoded at the given size, loading it with the given loader if it
+     * is not cached
+     *
+     * @param photo the photo
+     * @param size the largest width and height of the image, or FULL_SIZE for the original
+     * @param priority the priority of the decode
+     * @param loader decodes the image, throwing if it cannot be decoded
+     * @return a future completed with the image, or completed exceptionally if it cannot be
+     *         decoded. Cancelling it takes the decode off the queue if no other caller waits for
+     *         it and it has not started yet
+     */
+    public static CompletableFuture<Image> request(Photo photo, double size, Priority priority, Supplier<Image> loader) {
+        // the same size peek looks up, so a photo smaller than the size is found under FULL_SIZE either way
+        Key key = new Key(photo, effectiveSize(photo, size));
+        Image cached = lookup(key);
+        if (cached != null) {
+            HITS.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        // join a decode that is already queued or running, otherwise queue one
+        boolean[] created = new boolean[1];
+        boolean[] queue = new boolean[1];
+        Pending pending = PENDING.compute(key, (k, existing) -> {
+            if (existing == null) {
+                existing = new Pending();
+                existing.priority = priority;
+                created[0] = true;
+                queue[0] = true;
+            } else if (!existing.started && priority.compareTo(existing.priority) < 0) {
+                // a queued prefetch became visible, queue it again in the higher class
+                existing.priority = priority;
+                queue[0] = true;
+            }
+            existing.waiters.incrementAndGet();
+            return existing;
+        });
+        if (created[0]) {
+            MISSES.incrementAndGet();
+        } else {
+            HITS.incrementAndGet();
+        }
+        if (queue[0]) {
+            // the jobs already queued at a lower priority are not needed any more
+            for (CompletableFuture<Void> job : pending.jobs) {
+                job.cancel(false);
+            }
+            pending.jobs.add(DecodeScheduler.submit(priority, () -> {
+                decode(key, pending, loader);
+                return null;
+            }));
+        }
+
+        // every caller gets its own future, so cancelling it does not affect the other callers
+        CompletableFuture<Image> future = pending.result.copy();
+        future.whenComplete((image, error) -> {
+            if (future.isCancelled() && pending.waiters.decrementAndGet() == 0) {
+                abandon(key, pending);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * run a queued decode, unless every caller cancelled it while it was waiting or another job
+     * of the same decode already started
+     *
+     * @param key the key of the image
+     * @param pending the pending decode
+     * @param loader decodes the image
+     */
+    private static void decode(Key key, Pending pending, Supplier<Image> loader) {
+        boolean[] run = new boolean[1];
+        boolean[] abandoned = new boolean[1];
+        PENDING.computeIfPresent(key, (k, existing) -> {
+            if (existing != pending || pending.started) {
+                return existing;
+            }
+            if (pending.waiters.get() == 0) {
+                abandoned[0] = true;
+                return null;
+            }
+            pending.started = true;
+            run[0] = true;
+            return existing;
+        });
+        if (abandoned[0]) {
+            pending.result.cancel(false);
+        }
+        if (!run[0]) {
+            return;
+        }
+
+        try {
+            Image image = loader.get();
+            // cache the image before the decode is forgotten, so later requests find one or the other
+            store(key, image);
+            pending.result.complete(image);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // a huge image must not leave its callers waiting forever
+            pending.result.completeExceptionally(e);
+        } finally {
+            PENDING.remove(key, pending);
+            for (CompletableFuture<Void> job : pending.jobs) {
+                job.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * forget a decode whose callers all cancelled, and take it off the queue if it has not started
+     *
+     * @param key the key of the image
+     * @param pending the pending decode
+     */
+    private static void abandon(Key key, Pending pending) {
+        boolean[] abandoned = new boolean[1];
+        PENDING.computeIfPresent(key, (k, existing) -> {
+            if (existing == pending && !pending.started && pending.waiters.get() == 0) {
+                abandoned[0] = true;
+                return null;
+            }
+            return existing;
+        });
+        if (abandoned[0]) {
+            for (CompletableFuture<Void> job : pending.jobs) {
+                job.cancel(false);
+            }
+            pending.result.cancel(false);
+        }
+    }
+
+    /**
+     * get a cached image without decoding it
+     *
+     * @param photo the photo
+     * @param size the size the image was decoded at
+     * @return the image, or null if it is not cached
+     */
+    public static Image peek(Photo photo, double size) {
+        return lookup(new Key(photo, effectiveSize(photo, size)));
+    }
+
+    /**
+     * remove every image of a photo to free memory, for example after its file changed
+     *
+     * @param photo the photo
+     */
+    public static synchronized void invalidate(Photo photo) {
+        Iterator<Map.Entry<Key, Image>> entries = IMAGES.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Image> entry = entries.next();
+            if (entry.getKey().photo() == photo) {
+                bytes -= sizeOf(entry.getValue());
+                entries.remove();
+            }
+        }
+        SPILLED.keySet().removeIf(key -> key.photo() == photo);
+    }
+
+    /**
+     * get the number of requests served from the cache or by joining a running decode
+     *
+     * @return the number of hits
+     */
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    /**
+     * get the number of requests that started a decode
+     *
+     * @return the number of misses
+     */
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    /**
+     * get the number of bytes taken by the strongly held images
+     *
+     * @return the size of the cache in bytes
+     */
+    public static synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * find an image in the cache, moving it back from the soft references if it was spilled
+     *
+     * @param key the key of the image
+     * @return the image, or null if it is not cached
+     */
+    private static synchronized Image lookup(Key key) {
+        Image image = IMAGES.get(key);
+        if (image != null) {
+            return image;
+        }
+        Spilled spilled = SPILLED.remove(key);
+        image = spilled == null ? null : spilled.get();
+        if (image != null) {
+            store(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * add an image to the cache and evict the least recently used images beyond the bound
+     *
+     * @param key the key of the image
+     * @param image the decoded image
+     */
+    private static synchronized void store(Key key, Image image) {
+        Image old = IMAGES.put(key, image);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += sizeOf(image);
+
+        Iterator<Map.Entry<Key, Image>> eldest = IMAGES.entrySet().iterator();
+        while (bytes > MAX_BYTES && eldest.hasNext()) {
+            Map.Entry<Key, Image> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                // never evict the image that was just added, even if it is larger than the bound
+                continue;
+            }
+            bytes -= sizeOf(entry.getValue());
+            if (SOFT_SPILL) {
+                SPILLED.put(entry.getKey(), new Spilled(entry.getKey(), entry.getValue()));
+            }
+            eldest.remove();
+        }
+        // forget the spilled images the garbage collector reclaimed
+        for (Reference<? extends Image> cleared = CLEARED.poll(); cleared != null; cleared = CLEARED.poll()) {
+            Spilled spilled = (Spilled) cleared;
+            SPILLED.remove(spilled.key, spilled);
+        }
+    }
+
+    /**
+     * decode a very large image with subsampling, so the full image is never held in memory
+     *
+     * @param file the image file
+     * @param size the largest width and height wanted
+     * @return the image, at least size pixels on its longest side
+     */
+    private static Image subsample(File file, double size) {
+        try (RegionDecoder decoder = RegionDecoder.open(file)) {
+            int subsampling = (int) Math.max(1, Math.floor(Math.max(decoder.getWidth(), decoder.getHeight()) / size));
+            return TiledImageLayer.toImage(decoder.decode(new Rectangle(0, 0, decoder.getWidth(), decoder.getHeight()), subsampling));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * get the size to decode a photo at. A photo that already fits in the requested size is
+     * decoded at its own size, so it is never scaled up and shares its entry with FULL_SIZE
+     *
+     * @param photo the photo
+     * @param size the requested size
+     * @return the size to decode at
+     */
+    private static double effectiveSize(Photo photo, double size) {
+        if (size != FULL_SIZE && photo.getWidth() > 0 && Math.max(photo.getWidth(), photo.getHeight()) <= size) {
+            return FULL_SIZE;
+        }
+        return size;
+    }
+
+    /**
+     * get the largest side of the primary screen
+     *
+     * @return the size in pixels, or FULL_SIZE if there is no screen
+     */
+    private static double screenSize() {
+        Screen screen = Screen.getPrimary();
+        if (screen == null) {
+            return FULL_SIZE;
+        }
+        Rectangle2D bounds = screen.getBounds();
+        return Math.max(bounds.getWidth(), bounds.getHeight()) * screen.getOutputScaleX();
+    }
+
+    /**
+     * get the number of bytes the pixels of an image take
+     *
+     * @param image the image
+     * @return the size of the image in bytes
+     */
+    private static long sizeOf(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+}
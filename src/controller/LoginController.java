@@ -1,16 +1,22 @@
 package controller;
 
+// Java imports
+import java.util.ArrayList;
+import java.util.List;
+
 // JavaFX imports
+import javafx.application.Platform;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.TextField;
-import javafx.scene.layout.Pane;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
 //Project imports
+import model.Album;
+import model.FolderSync;
+import model.Photo;
 import model.Photos;
+import model.Session;
 import model.User;
 
 /**
@@ -36,6 +42,21 @@ public class LoginController {
      */
     public void setApp(Photos app) {
         this.app = app;
+        // the view is reused after logging out, clear the name of the last user
+        usernameTextField.clear();
+        usernameTextField.setPromptText("Username");
+        usernameTextField.setDisable(false);
+        usernameTextField.requestFocus();
+    }
+
+    /**
+     * Shows the login screen before the users are loaded, login is enabled by {@link #setApp}
+     */
+    public void setLoading() {
+        this.app = null;
+        usernameTextField.clear();
+        usernameTextField.setPromptText("Loading users...");
+        usernameTextField.setDisable(true);
     }
 
     /**
@@ -43,40 +64,46 @@ public class LoginController {
      * @throws Exception: if the fxml file cannot be found
      */
     public void handleLogin() throws Exception{
+        if (app == null) {
+            // the users are still loading
+            return;
+        }
         String username = usernameTextField.getText();
 
+        // open a session for the user, each user can be logged in once at a time
+        Session session;
+        try {
+            session = Session.open(app, username);
+        } catch (IllegalStateException e) {
+            Photos.errorAlert("Login Error", "User is already logged in", "Log out of the other session first.");
+            return;
+        }
+
         // check if username is "admin"
-        if (username.equals("admin")) {
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(getClass().getResource("/view/adminhomepage.fxml"));
-            Pane root = loader.load();
-            AdminHomepageController adminController = loader.getController();
+        if (session != null && session.isAdmin()) {
             Stage stage = (Stage) usernameTextField.getScene().getWindow();
+            AdminHomepageController adminController = ViewRegistry.show(stage, ViewRegistry.View.ADMIN_HOMEPAGE);
             adminController.start(stage, this.app);
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
             return;
         }
 
-        // check if there is a user in app.userList with the given username
-        User currentUser = null;
-        for (User user : app.getUsers()) {
-            if (user.getUsername().equals(username)) {
-                currentUser = user;
-                break;
-            }
-        }
+        // the session has the user in app.userList with the given username
+        User currentUser = session == null ? null : session.getUser();
         if (currentUser != null) {
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(getClass().getResource("/view/homepage.fxml"));
-            Pane root = loader.load();
-            HomepageController homepageController = loader.getController();
+            // keep the user's folder albums in sync with their directories while they are logged in
+            FolderSync.startAll(currentUser, Platform::runLater);
+            ThumbnailService.openStore(currentUser);
+            // fill the thumbnail store in the background, so albums open with their thumbnails ready
+            List<Photo> photos = new ArrayList<>();
+            for (Album album : currentUser.getAlbums()) {
+                photos.addAll(album.getPhotos());
+            }
+            ThumbnailService.generate(currentUser, photos);
             Stage stage = (Stage) usernameTextField.getScene().getWindow();
+            HomepageController homepageController = ViewRegistry.show(stage, ViewRegistry.View.HOMEPAGE);
             homepageController.start(currentUser, app); // TODO: make a User object and pass that instead
-            Scene scene = new Scene(root, 800, 600);
-            stage.setScene(scene);
-            stage.show();
+            // load the screens the homepage leads to while the user looks at it
+            ViewRegistry.prewarm(ViewRegistry.View.GALLERY, ViewRegistry.View.SEARCH_RESULTS, ViewRegistry.View.CHOOSE_ALBUM, ViewRegistry.View.EDIT_TAGS);
         } else {
             // show an error alert that the user does not exist
             Photos.errorAlert("Login Error", "User does not exist", "User does not exist");
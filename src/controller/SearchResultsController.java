@@ -5,17 +5,13 @@ import java.io.IOException;
 
 // JavaFX imports
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.AnchorPane;
-import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
 
 // Project imports
 import model.Album;
-import model.Photo;
 import model.Photos;
 import model.User;
 import static model.Photos.errorAlert;
@@ -55,7 +51,7 @@ public class SearchResultsController {
         this.user = currentUser;
         this.searchResultsAlbum = searchResultsAlbum;
 
-        galleryViewController.start(searchResultsAlbum);
+        galleryViewController.start(currentUser, searchResultsAlbum);
     }
 
     /**
@@ -76,19 +72,13 @@ public class SearchResultsController {
             // add the album to the user's list of albums
             user.createAlbum(albumName);
             Album userAlbum = user.getAlbum(albumName);
-            for (Photo photo : searchResultsAlbum.getPhotos()) {
-                userAlbum.addPhoto(photo);
-            }
+            userAlbum.addPhotos(searchResultsAlbum.getPhotos());
             // get the current stage
             Stage stage = (Stage) createAlbumButton.getScene().getWindow();
-            // load the album.fxml file
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/homepage.fxml"));
+            // show the homepage, it is loaded once and reused
             try {
-                Pane root = loader.load();
-                HomepageController controller = loader.getController();
+                HomepageController controller = ViewRegistry.show(stage, ViewRegistry.View.HOMEPAGE);
                 controller.start(user, app);
-                stage.setScene(new Scene(root, 800, 600));
-                stage.show();
             } catch (IOException e) {
                 // show an error alert that the album screen could not be loaded
                 errorAlert("Create Album", "Failed to load album screen", "Failed to load album screen");
@@ -103,14 +93,10 @@ public class SearchResultsController {
     public void backToHomepage() {
         // get the current stage
         Stage stage = (Stage) createAlbumButton.getScene().getWindow();
-        // load the homepage.fxml file
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/homepage.fxml"));
+        // show the homepage, it is loaded once and reused
         try {
-            Pane root = loader.load();
-            HomepageController controller = loader.getController();
+            HomepageController controller = ViewRegistry.show(stage, ViewRegistry.View.HOMEPAGE);
             controller.start(this.user, this.app);
-            stage.setScene(new Scene(root, 800, 600));
-            stage.show();
         } catch (IOException e) {
             // show an error alert that the homepage screen could not be returned to
             errorAlert("Back to Homepage", "Failed to return to homepage screen", "Failed to return to homepage screen");
@@ -2,43 +2,147 @@ package controller;
 
 // Java imports
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 // JavaFX imports
+import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.Canvas;
 import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 
 // Project imports
+import model.ImageProbe;
 import model.Photo;
+import model.User;
 
 /**
  * Controller class for the separate photo display view.
  * This class is responsible for displaying the selected photo in a separate window.
  * It displays the photo, caption, date, and tags of the selected photo.
+ * <p>
+ * The photo is shown progressively: the thumbnail from the gallery appears straight away, then
+ * a decode at screen size replaces it. The full resolution image is only decoded once the user
+ * zooms in (with the scroll wheel, dragging to pan and double clicking to reset) further than
+ * the screen sized image can show sharply. Photos too large to decode whole are never decoded
+ * at full resolution; instead the part in view is drawn over the image from tiles decoded at
+ * the current zoom level by a {@link TiledImageLayer}. An animated GIF replaces its first frame
+ * with the animation, played by a {@link GifPlayer}. Every decode runs in the background and
+ * the ones still running are cancelled when the window is closed.
  *
  * @author ks1686
  */
 public class SeparatePhotoDisplayController {
 
+    // the stages of the progressive display, a stage never replaces a later one
+    private static final int THUMBNAIL = 1;
+    private static final int SCREEN = 2;
+    private static final int FULL = 3;
+
+    // how far the user can zoom in, and how much one step of the scroll wheel zooms
+    private static final double MAX_ZOOM = 8;
+    private static final double ZOOM_STEP = 1.25;
+
     @FXML private ImageView imageView;
+    @FXML private Canvas tileCanvas;
     @FXML private Label captionLabel;
     @FXML private Label dateTimeLabel;
     @FXML private Label tagsLabel;
 
+    private Photo photo;
+
+    // the stage of the image that is shown
+    private int shownStage;
+
+    // the decodes that are still running
+    private final List<CompletableFuture<Image>> loads = new ArrayList<>();
+    private boolean fullRequested;
+    private boolean closed;
+
+    // set for photos that are shown from tiles when zoomed in, opened on the first zoom
+    private boolean tiled;
+    private TiledImageLayer tileLayer;
+
+    // plays the frames of a GIF, or null for other formats
+    private GifPlayer gifPlayer;
+
+    // the zoom factor, and the centre of the view as a fraction of the width and height of the photo
+    private double zoom = 1;
+    private double centerX = 0.5;
+    private double centerY = 0.5;
+
+    // where a drag started, in scene coordinates, and the centre at that moment
+    private double dragX;
+    private double dragY;
+    private double dragCenterX;
+    private double dragCenterY;
+
     /**
      * Method to start the separate photo display view.
      * This method sets the image view, caption, date, and tags of the selected photo.
      *
+     * @param user the user the photo belongs to
      * @param selectedPhoto the selected photo to display
      */
-    public void start(Photo selectedPhoto) {
-        // get the selected photo file path
-        String filepath = selectedPhoto.getFilePath();
-        Image image = new Image(new File(filepath).toURI().toString());
+    public void start(User user, Photo selectedPhoto) {
+        // the view is reused, drop everything from the photo it showed before
+        stop();
+        closed = false;
+        shownStage = 0;
+        fullRequested = false;
+        zoom = 1;
+        centerX = 0.5;
+        centerY = 0.5;
+        imageView.setImage(null);
+        imageView.setViewport(null);
+
+        this.photo = selectedPhoto;
+        this.tiled = (long) selectedPhoto.getWidth() * selectedPhoto.getHeight() > TiledImageLayer.TILED_PIXELS;
+
+        // show the thumbnail straight away, then a screen sized image, each from the shared cache if possible
+        Image thumbnail = ThumbnailService.peek(selectedPhoto);
+        if (thumbnail != null) {
+            show(thumbnail, THUMBNAIL);
+        } else {
+            load(ThumbnailService.request(user, selectedPhoto), THUMBNAIL);
+        }
+        Image screen = ImageCache.peek(selectedPhoto, ImageCache.SCREEN_SIZE);
+        if (screen != null) {
+            show(screen, SCREEN);
+        } else {
+            load(ImageCache.request(selectedPhoto, ImageCache.SCREEN_SIZE), SCREEN);
+        }
+        if (selectedPhoto.getFormat() == ImageProbe.Format.GIF) {
+            // the frames are decoded at screen size, which is as sharp as the photo gets
+            gifPlayer = GifPlayer.play(new File(selectedPhoto.getFilePath()), ImageCache.SCREEN_SIZE, frame -> {
+                if (!closed) {
+                    shownStage = FULL;
+                    imageView.setImage(frame);
+                    updateViewport();
+                }
+            });
+        }
+
+        // zoom with the scroll wheel, pan by dragging, and go back to the whole photo with a double click
+        imageView.setOnScroll(this::zoom);
+        imageView.setOnMousePressed(this::startDrag);
+        imageView.setOnMouseDragged(this::drag);
+        imageView.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) {
+                zoom = 1;
+                centerX = 0.5;
+                centerY = 0.5;
+                updateViewport();
+            }
+        });
 
-        // set the image view
-        imageView.setImage(image);
         // set the caption label
         captionLabel.setText(selectedPhoto.getCaption());
 
@@ -50,5 +154,155 @@ public class SeparatePhotoDisplayController {
         tagsLabel.setText(selectedPhoto.getTags().toString());
 
     }
-}
 
+    /**
+     * Method to cancel the decodes that are still running once the window is closed
+     */
+    public void stop() {
+        closed = true;
+        for (CompletableFuture<Image> load : loads) {
+            load.cancel(false);
+        }
+        loads.clear();
+        if (tileLayer != null) {
+            tileLayer.close();
+            tileLayer = null;
+        }
+        if (gifPlayer != null) {
+            gifPlayer.stop();
+            gifPlayer = null;
+        }
+    }
+
+    /**
+     * Method to show a decoded image once it is ready
+     * @param future: the decode
+     * @param stage: the stage of the decode
+     */
+    private void load(CompletableFuture<Image> future, int stage) {
+        loads.add(future);
+        future.thenAccept(image -> Platform.runLater(() -> {
+            loads.remove(future);
+            show(image, stage);
+        }));
+    }
+
+    /**
+     * Method to show an image, unless a later stage is already shown
+     * @param image: the image
+     * @param stage: the stage the image comes from
+     */
+    private void show(Image image, int stage) {
+        if (closed || stage <= shownStage) {
+            return;
+        }
+        shownStage = stage;
+        imageView.setImage(image);
+        updateViewport();
+    }
+
+    /**
+     * Method to zoom in or out around the centre of the view
+     * @param event: the scroll event
+     */
+    private void zoom(ScrollEvent event) {
+        if (event.getDeltaY() == 0) {
+            return;
+        }
+        zoom = event.getDeltaY() > 0 ? Math.min(MAX_ZOOM, zoom * ZOOM_STEP) : Math.max(1, zoom / ZOOM_STEP);
+        updateViewport();
+        event.consume();
+    }
+
+    /**
+     * Method to remember where a drag started
+     * @param event: the mouse event
+     */
+    private void startDrag(MouseEvent event) {
+        dragX = event.getSceneX();
+        dragY = event.getSceneY();
+        dragCenterX = centerX;
+        dragCenterY = centerY;
+    }
+
+    /**
+     * Method to pan the zoomed photo with the mouse
+     * @param event: the mouse event
+     */
+    private void drag(MouseEvent event) {
+        Rectangle2D shown = displayedSize();
+        if (shown == null || zoom == 1) {
+            return;
+        }
+        centerX = dragCenterX - (event.getSceneX() - dragX) / (shown.getWidth() * zoom);
+        centerY = dragCenterY - (event.getSceneY() - dragY) / (shown.getHeight() * zoom);
+        updateViewport();
+    }
+
+    /**
+     * Method to show the zoomed part of the image, and decode the full resolution image once the
+     * shown image has fewer pixels than the part of the screen it covers
+     */
+    private void updateViewport() {
+        Image image = imageView.getImage();
+        if (image == null || image.getWidth() <= 0) {
+            return;
+        }
+        if (zoom == 1) {
+            imageView.setViewport(null);
+        } else {
+            double width = image.getWidth() / zoom;
+            double height = image.getHeight() / zoom;
+            // keep the view inside the photo
+            centerX = Math.clamp(centerX, 0.5 / zoom, 1 - 0.5 / zoom);
+            centerY = Math.clamp(centerY, 0.5 / zoom, 1 - 0.5 / zoom);
+            imageView.setViewport(new Rectangle2D(centerX * image.getWidth() - width / 2, centerY * image.getHeight() - height / 2, width, height));
+        }
+
+        Rectangle2D shown = displayedSize();
+        boolean blurry = shownStage == SCREEN && shown != null && image.getWidth() / zoom < shown.getWidth();
+        if (tiled) {
+            renderTiles(blurry, shown);
+        } else if (!fullRequested && blurry) {
+            fullRequested = true;
+            load(ImageCache.request(photo, ImageCache.FULL_SIZE), FULL);
+        }
+    }
+
+    /**
+     * Method to draw the sharp tiles of a large photo over the zoomed screen sized image
+     * @param blurry: true if the screen sized image has fewer pixels than it covers
+     * @param shown: the size of the photo on screen
+     */
+    private void renderTiles(boolean blurry, Rectangle2D shown) {
+        if (!blurry) {
+            if (tileLayer != null) {
+                tileLayer.clear();
+            }
+            return;
+        }
+        if (tileLayer == null) {
+            try {
+                tileLayer = TiledImageLayer.open(new File(photo.getFilePath()), tileCanvas);
+            } catch (IOException e) {
+                // keep showing the screen sized image
+                tiled = false;
+                return;
+            }
+        }
+        tileLayer.render(centerX, centerY, zoom, shown.getWidth(), shown.getHeight());
+    }
+
+    /**
+     * Method to get the size the photo takes on screen when it is fitted into the image view
+     * @return the width and height of the photo on screen, or null if nothing is shown
+     */
+    private Rectangle2D displayedSize() {
+        Image image = imageView.getImage();
+        if (image == null || image.getWidth() <= 0 || image.getHeight() <= 0) {
+            return null;
+        }
+        double scale = Math.min(imageView.getFitWidth() / image.getWidth(), imageView.getFitHeight() / image.getHeight());
+        return new Rectangle2D(0, 0, image.getWidth() * scale, image.getHeight() * scale);
+    }
+}
@@ -2,27 +2,56 @@ package controller;
 
 // Java imports
 import java.io.File;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 // JavaFX imports
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.control.Button;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.ToggleButton;
+import javafx.util.Duration;
 
 // Project imports
+import controller.DecodeScheduler.Priority;
 import model.Album;
+import model.ImageProbe;
 import model.Photo;
 
 /**
  * Controller class for the slideshow view
  * This class is responsible for the functionality of the slideshow view
  * It allows the user to view the photos in the album in a slideshow
- * The user can go to the next photo or the previous photo
+ * The user can go to the next photo or the previous photo, or let the slideshow play
+ * <p>
+ * Photos are decoded at screen resolution in the background. After every move the next photos
+ * in the direction the user is going, and the photo just behind, are decoded ahead of time with
+ * the prefetch priority, so going forward or back shows a photo that is already in the image
+ * cache. Decodes that are still queued for photos the user moved away from, for example after
+ * turning around or skipping ahead quickly, are cancelled. A GIF shows its first frame from the
+ * cache until a {@link GifPlayer} takes over and animates it while it is the current photo.
  *
  * @author ks1686
  */
 public class SlideshowViewController {
 
+    // the number of photos decoded ahead in the direction of travel, and behind it
+    private static final int PREFETCH_AHEAD = 3;
+    private static final int PREFETCH_BEHIND = 1;
+
+    // photos are decoded to fit the screen, larger photos are never shown bigger than that
+    private static final double SCREEN_SIZE = ImageCache.SCREEN_SIZE;
+
     private Album currentAlbum;
     private Photo currentPhoto;
     private int currentIndex;
@@ -30,29 +59,50 @@ public class SlideshowViewController {
     private Button previousButton;
     @FXML
     private Button nextButton;
+    @FXML
+    private ToggleButton autoplayButton;
+    @FXML
+    private Spinner<Integer> intervalSpinner;
 
     // the imageView in the slideshow view
     @FXML
     private ImageView slideshowImageView;
 
+    // 1 when the user last went forward, -1 when they last went back
+    private int direction = 1;
+
+    // the decode of the photo being shown, and the decodes started ahead of time, by photo
+    private CompletableFuture<Image> showing;
+    private final Map<Photo, CompletableFuture<Image>> prefetches = new IdentityHashMap<>();
+
+    // advances the slideshow while autoplay is on
+    private Timeline autoplay;
+
+    // plays the current photo if it is a GIF
+    private GifPlayer gifPlayer;
+
     /**
      * Method to start the slideshow view
      * @param selectedPhoto: the photo that the user selected
      * @param currentAlbum: the album that the selected photo is in
      */
     public void start(Photo selectedPhoto, Album currentAlbum) {
+        // the view is reused, reset what the last slideshow left behind
+        stop();
+        direction = 1;
+        autoplayButton.setSelected(false);
+        previousButton.setDisable(false);
+        nextButton.setDisable(false);
+        slideshowImageView.setImage(null);
+
         this.currentAlbum = currentAlbum;
         this.currentPhoto = selectedPhoto;
 
         // get the index of the selected photo on the album
         currentIndex = currentAlbum.getPhotos().indexOf(selectedPhoto);
 
-        // get the photo
-        String filepath = selectedPhoto.getFilePath();
-        Image image = new Image(new File(filepath).toURI().toString());
-
-        // set the image view to the selected photo
-        slideshowImageView.setImage(image);
+        // show the photo once it is decoded, or straight away if it is cached
+        showPhoto(selectedPhoto);
 
     }
 
@@ -67,6 +117,7 @@ public class SlideshowViewController {
             currentIndex = 0;
         }
         currentPhoto = currentAlbum.getPhotos().get(currentIndex);
+        direction = 1;
 
         // disable the button if there is no next photo
         if (currentIndex == currentAlbum.getPhotos().size() - 1) {
@@ -75,12 +126,8 @@ public class SlideshowViewController {
         // enable the previous button
         previousButton.setDisable(false);
 
-        // get the photo
-        String filepath = currentPhoto.getFilePath();
-        Image image = new Image(new File(filepath).toURI().toString());
-
-        // set the image view to the selected photo
-        slideshowImageView.setImage(image);
+        // show the photo once it is decoded, or straight away if it is cached
+        showPhoto(currentPhoto);
 
     }
 
@@ -95,6 +142,7 @@ public class SlideshowViewController {
             currentIndex = currentAlbum.getPhotos().size() - 1;
         }
         currentPhoto = currentAlbum.getPhotos().get(currentIndex);
+        direction = -1;
 
         // disable the button if there is no previous photo
         if (currentIndex == 0) {
@@ -103,12 +151,125 @@ public class SlideshowViewController {
         // enable the next button
         nextButton.setDisable(false);
 
-        // get the photo
-        String filepath = currentPhoto.getFilePath();
-        Image image = new Image(new File(filepath).toURI().toString());
+        // show the photo once it is decoded, or straight away if it is cached
+        showPhoto(currentPhoto);
+    }
+
+    /**
+     * Method to start or stop playing the slideshow, using the interval from the spinner
+     */
+    @FXML
+    public void toggleAutoplay() {
+        if (autoplay != null) {
+            autoplay.stop();
+            autoplay = null;
+        }
+        if (!autoplayButton.isSelected()) {
+            return;
+        }
+
+        int seconds = intervalSpinner.getValue() == null ? 3 : intervalSpinner.getValue();
+        autoplay = new Timeline(new KeyFrame(Duration.seconds(seconds), e -> {
+            // stop at the end of the album instead of starting over
+            if (currentIndex >= currentAlbum.getPhotos().size() - 1) {
+                autoplayButton.setSelected(false);
+                toggleAutoplay();
+                return;
+            }
+            nextPhoto();
+        }));
+        autoplay.setCycleCount(Animation.INDEFINITE);
+        autoplay.play();
+    }
+
+    /**
+     * Method to stop the slideshow once its window is closed
+     */
+    public void stop() {
+        if (autoplay != null) {
+            autoplay.stop();
+            autoplay = null;
+        }
+        if (showing != null) {
+            showing.cancel(false);
+            showing = null;
+        }
+        if (gifPlayer != null) {
+            gifPlayer.stop();
+            gifPlayer = null;
+        }
+        for (CompletableFuture<Image> prefetch : prefetches.values()) {
+            prefetch.cancel(false);
+        }
+        prefetches.clear();
+    }
+
+    /**
+     * Method to show a photo in the image view and decode its neighbours ahead of time
+     * @param photo: the photo to show
+     */
+    private void showPhoto(Photo photo) {
+        // the photo the user moved away from is not needed any more, unless it is prefetched
+        if (showing != null) {
+            showing.cancel(false);
+            showing = null;
+        }
+        if (gifPlayer != null) {
+            gifPlayer.stop();
+            gifPlayer = null;
+        }
+        Image cached = ImageCache.peek(photo, SCREEN_SIZE);
+        if (photo.getFormat() == ImageProbe.Format.GIF) {
+            // the first frame from the cache, if it is there, until the animation starts
+            slideshowImageView.setImage(cached);
+            gifPlayer = GifPlayer.play(new File(photo.getFilePath()), SCREEN_SIZE, frame -> {
+                if (currentPhoto == photo) {
+                    slideshowImageView.setImage(frame);
+                }
+            });
+        } else if (cached != null) {
+            slideshowImageView.setImage(cached);
+        } else {
+            showing = ImageCache.request(photo, SCREEN_SIZE);
+            showing.thenAccept(image -> Platform.runLater(() -> {
+                // the user may have moved on while the photo was decoding
+                if (currentPhoto == photo) {
+                    slideshowImageView.setImage(image);
+                }
+            }));
+        }
+        prefetch();
+    }
+
+    /**
+     * Method to decode the photos around the current one, cancelling the decodes of photos that
+     * are no longer close to it
+     */
+    private void prefetch() {
+        List<Photo> photos = currentAlbum.getPhotos();
+        // the photos ahead are queued first, so they are decoded first
+        Map<Photo, Boolean> wanted = new LinkedHashMap<>();
+        for (int i = 1; i <= PREFETCH_AHEAD && i < photos.size(); i++) {
+            wanted.put(photos.get(Math.floorMod(currentIndex + direction * i, photos.size())), Boolean.TRUE);
+        }
+        for (int i = 1; i <= PREFETCH_BEHIND && i < photos.size(); i++) {
+            wanted.put(photos.get(Math.floorMod(currentIndex - direction * i, photos.size())), Boolean.TRUE);
+        }
+        wanted.remove(currentPhoto);
 
-        // set the image view to the selected photo
-        slideshowImageView.setImage(image);
+        Iterator<Map.Entry<Photo, CompletableFuture<Image>>> running = prefetches.entrySet().iterator();
+        while (running.hasNext()) {
+            Map.Entry<Photo, CompletableFuture<Image>> entry = running.next();
+            if (!wanted.containsKey(entry.getKey())) {
+                entry.getValue().cancel(false);
+                running.remove();
+            }
+        }
+        for (Photo photo : wanted.keySet()) {
+            if (!prefetches.containsKey(photo)) {
+                prefetches.put(photo, ImageCache.request(photo, SCREEN_SIZE, Priority.PREFETCH));
+            }
+        }
     }
 
 }
@@ -6,12 +6,15 @@ import java.util.List;
 import java.util.Map;
 
 // JavaFX imports
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.ListView;
 
 // Project imports
+import model.ModelEvent;
+import model.ModelEventBus;
 import model.Photo;
 import model.Photos;
 import model.User;
@@ -19,6 +22,7 @@ import model.User;
 /**
  * Controller for the TagsList.fxml
  * This controller is used to display the tags of a photo in a list view
+ * The list follows the tags added to and removed from the photo while it is shown
  *
  * @author jacobjude
  */
@@ -27,6 +31,10 @@ public class TagsListController {
     @FXML
     protected ListView<String> tagsListView;
     private ObservableList<String> obsList;
+    private Photo photo;
+
+    // keeps the list current as the tags of the photo change
+    private ModelEventBus.Subscription subscription;
 
     /**
      * Initializes the controller
@@ -36,6 +44,11 @@ public class TagsListController {
      */
     @FXML
     public void start(User user, Photos app, Photo photo) {
+        // the view is reused, stop following the photo it showed before
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        this.photo = photo;
 
         List<Map<String, String>> photoTags = photo.getTags();
         List<String> tags = new ArrayList<>();
@@ -48,24 +61,25 @@ public class TagsListController {
         }
         obsList = FXCollections.observableArrayList(tags); // create an observable list from the list of albums
         tagsListView.setItems(obsList); // set the list view to the observable list
-
-    }
-
-    /**
-     * Adds a tag to the list view
-     * @param tagType: the type of the tag
-     * @param tagValue: the value of the tag
-     */
-    public void addTag(String tagType, String tagValue) {
-        obsList.add(tagType + ": " + tagValue);
+        subscription = ModelEventBus.subscribe(ModelEvent.PhotoEvent.class, Platform::runLater, this::photoChanged);
     }
 
     /**
-     * Deletes a tag from the list view
-     * @param tagType: the type of the tag
-     * @param tagValue: the value of the tag
+     * Adds and removes the tags that were added to and removed from the photo
+     * @param events: the changes to photos since the last update
      */
-    public void deleteTag(String tagType, String tagValue) {
-        obsList.remove(tagType + ": " + tagValue);
+    private void photoChanged(List<ModelEvent.PhotoEvent> events) {
+        // once the list is no longer shown, stop listening
+        if (tagsListView.getScene() == null || tagsListView.getScene().getWindow() == null) {
+            subscription.cancel();
+            return;
+        }
+        for (ModelEvent.PhotoEvent event : events) {
+            if (event instanceof ModelEvent.TagAdded added && added.photo() == photo) {
+                obsList.add(added.key() + ": " + added.value());
+            } else if (event instanceof ModelEvent.TagRemoved removed && removed.photo() == photo) {
+                obsList.remove(removed.key() + ": " + removed.value());
+            }
+        }
     }
 }
\ No newline at end of file
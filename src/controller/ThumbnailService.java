@@ -0,0 +1,264 @@
+package controller;
+
+// Java imports
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+
+// JavaFX imports
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+
+// Project imports
+import controller.DecodeScheduler.Priority;
+import model.GifAnimation;
+import model.ImageProbe;
+import model.Photo;
+import model.Photos;
+import model.ThumbnailStore;
+import model.User;
+
+/**
+ * Service that creates the thumbnails shown in the gallery grid. Thumbnails are decoded at their
+ * target size, so the full resolution image is never held in memory, and the decoding happens on
+ * the {@link DecodeScheduler} instead of the FX thread. Callers get a future and show a
+ * placeholder until it completes.
+ * <p>
+ * Decoded thumbnails are kept in the shared {@link ImageCache}. While a user is logged in they
+ * are also written to that user's {@link ThumbnailStore} as small JPEG (or PNG, when they have
+ * transparency) files, so opening an album again, even after a restart, reads the thumbnails
+ * back instead of decoding the originals.
+ *
+ * @author ks1686
+ */
+public final class ThumbnailService {
+
+    /**
+     * the largest width and height of a thumbnail
+     */
+    public static final double THUMBNAIL_SIZE = 150;
+
+    // roughly ten thousand thumbnails
+    private static final long STORE_SIZE = 64L * 1024 * 1024;
+
+    // the stores of the logged in users, by username
+    private static final Map<String, ThumbnailStore> STORES = new ConcurrentHashMap<>();
+
+    // the background generation of the thumbnails missing from each store, by username, guarded by the class
+    private static final Map<String, CompletableFuture<Void>> GENERATING = new HashMap<>();
+
+    private ThumbnailService() {
+    }
+
+    /**
+     * open the thumbnail store of a user, the stores of other logged in users stay open
+     *
+     * @param user the user that logged in
+     */
+    public static synchronized void openStore(User user) {
+        closeStore(user);
+        try {
+            STORES.put(user.getUsername(), ThumbnailStore.open(Photos.userDirOf(user.getUsername()), STORE_SIZE));
+        } catch (IOException e) {
+            // thumbnails are still decoded, just not kept between sessions
+        }
+    }
+
+    /**
+     * close the thumbnail store of a user
+     *
+     * @param user the user that logged out
+     */
+    public static synchronized void closeStore(User user) {
+        CompletableFuture<Void> job = GENERATING.remove(user.getUsername());
+        if (job != null) {
+            job.cancel(false);
+        }
+        ThumbnailStore store = STORES.remove(user.getUsername());
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * decode the thumbnail of a photo in the background, for a tile that is on screen
+     *
+     * @param user the user the photo belongs to, whose store keeps the thumbnail
+     * @param photo the photo to create a thumbnail for
+     * @return a future completed with the thumbnail, or completed exceptionally if it cannot be decoded
+     */
+    public static CompletableFuture<Image> request(User user, Photo photo) {
+        return request(user, photo, Priority.VISIBLE);
+    }
+
+    /**
+     * decode the thumbnail of a photo in the background
+     *
+     * @param user the user the photo belongs to, whose store keeps the thumbnail
+     * @param photo the photo to create a thumbnail for
+     * @param priority the priority of the decode, PREFETCH for tiles that are not on screen yet
+     * @return a future completed with the thumbnail, or completed exceptionally if it cannot be decoded
+     */
+    public static CompletableFuture<Image> request(User user, Photo photo, Priority priority) {
+        File file = new File(photo.getFilePath());
+        // the decoded thumbnails are kept in the shared image cache, the store only holds encoded bytes
+        return ImageCache.request(photo, THUMBNAIL_SIZE, priority, () -> {
+            ThumbnailStore cache = user == null ? null : STORES.get(user.getUsername());
+            String key = ThumbnailStore.keyOf(file);
+            if (cache != null) {
+                byte[] cached = cache.get(key);
+                if (cached != null) {
+                    Image image = new Image(new ByteArrayInputStream(cached));
+                    if (!image.isError()) {
+                        return image;
+                    }
+                }
+            }
+            return decode(photo, file, cache, key);
+        });
+    }
+
+    /**
+     * generate the thumbnails of the given photos that are not in the user's store yet, one at a
+     * time with the background priority. The generation stops when the store is closed
+     *
+     * @param user the user the photos belong to
+     * @param photos the photos
+     */
+    public static synchronized void generate(User user, Collection<Photo> photos) {
+        ThumbnailStore target = STORES.get(user.getUsername());
+        if (target == null) {
+            return;
+        }
+        CompletableFuture<Void> previous = GENERATING.remove(user.getUsername());
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        generateNext(user.getUsername(), target, List.copyOf(photos).iterator());
+    }
+
+    /**
+     * queue the generation of the next thumbnail missing from the store. Each job handles one
+     * photo, so visible and prefetched work overtakes the generation between photos
+     *
+     * @param username the user the generation started for
+     * @param target the store the generation started for
+     * @param remaining the photos left to check
+     */
+    private static synchronized void generateNext(String username, ThumbnailStore target, Iterator<Photo> remaining) {
+        if (STORES.get(username) != target || !remaining.hasNext()) {
+            GENERATING.remove(username);
+            return;
+        }
+        CompletableFuture<Void> job = DecodeScheduler.submit(Priority.BACKGROUND, () -> {
+            while (remaining.hasNext() && STORES.get(username) == target) {
+                Photo photo = remaining.next();
+                File file = new File(photo.getFilePath());
+                String key = ThumbnailStore.keyOf(file);
+                if (!photo.isMissing() && !target.contains(key)) {
+                    try {
+                        decode(photo, file, target, key);
+                    } catch (IllegalStateException e) {
+                        // the gallery shows the placeholder for this photo
+                    }
+                    break;
+                }
+            }
+            return null;
+        });
+        GENERATING.put(username, job);
+        job.thenRun(() -> generateNext(username, target, remaining));
+    }
+
+    /**
+     * decode a thumbnail from the original file and add it to the store
+     *
+     * @param photo the photo
+     * @param file the original file
+     * @param cache the store, or null if there is none
+     * @param key the key of the thumbnail in the store
+     * @return the thumbnail
+     */
+    private static Image decode(Photo photo, File file, ThumbnailStore cache, String key) {
+        String url = file.toURI().toString();
+        Image image;
+        if (photo.getFormat() == ImageProbe.Format.GIF) {
+            // grids show a GIF as its first frame, the other frames are never decoded
+            try {
+                image = TiledImageLayer.toImage(GifAnimation.firstFrame(file, THUMBNAIL_SIZE));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not decode " + url, e);
+            }
+        } else {
+            // requested size decode: the decoder scales while reading, smooth filtering for quality
+            image = new Image(url, THUMBNAIL_SIZE, THUMBNAIL_SIZE, true, true, false);
+            if (image.isError()) {
+                throw new IllegalStateException("Could not decode " + url, image.getException());
+            }
+        }
+        if (cache != null) {
+            byte[] encoded = encode(image);
+            if (encoded != null) {
+                cache.put(key, encoded);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * get the thumbnail of a photo if it is already decoded
+     *
+     * @param photo the photo
+     * @return the thumbnail, or null if it has to be decoded
+     */
+    public static Image peek(Photo photo) {
+        return ImageCache.peek(photo, THUMBNAIL_SIZE);
+    }
+
+    /**
+     * encode a thumbnail for the store
+     *
+     * @param image the decoded thumbnail
+     * @return the encoded thumbnail, or null if it cannot be encoded
+     */
+    private static byte[] encode(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        if (width <= 0 || height <= 0 || image.getPixelReader() == null) {
+            return null;
+        }
+        int[] argb = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
+
+        boolean opaque = true;
+        for (int pixel : argb) {
+            if (pixel >>> 24 != 0xFF) {
+                opaque = false;
+                break;
+            }
+        }
+
+        // JPEG keeps photos small, PNG keeps the transparency of icons and screenshots
+        BufferedImage buffered = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        buffered.setRGB(0, 0, width, height, argb, 0, width);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (!ImageIO.write(buffered, opaque ? "jpg" : "png", out)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+}
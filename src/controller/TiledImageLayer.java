@@ -0,0 +1,281 @@
+package controller;
+
+// Java imports
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// JavaFX imports
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+// Project imports
+import controller.DecodeScheduler.Priority;
+import model.RegionDecoder;
+
+/**
+ * Draws the visible part of a very large image onto a canvas from tiles decoded at the current
+ * zoom level. The image is split into square tiles of a fixed number of decoded pixels; at each
+ * zoom level tiles are read with {@link RegionDecoder} using the power of two subsampling that
+ * comes closest to one image pixel per screen pixel, so a tile always takes the same memory
+ * whatever the size of the image. Decoded tiles are kept in a least recently used cache bounded
+ * by bytes, and queued decodes of tiles that scrolled out of view are cancelled, so panning and
+ * zooming stay responsive with bounded memory. The reader of an image decodes one region at a
+ * time, so a layer hands one tile at a time to the {@link DecodeScheduler}, with the visible
+ * priority, and keeps the rest in its own queue instead of holding scheduler threads that would
+ * only wait for the reader.
+ *
+ * @author ks1686
+ */
+public class TiledImageLayer {
+
+    /**
+     * images with more pixels than this are shown from tiles instead of being decoded whole
+     */
+    public static final long TILED_PIXELS = 16L * 1024 * 1024;
+
+    // the width and height of a tile in decoded pixels
+    private static final int TILE_SIZE = 256;
+
+    // the most bytes the decoded tiles of one image may take
+    private static final long MAX_TILE_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * The position of a tile.
+     *
+     * @param subsampling the subsampling of the zoom level the tile belongs to
+     * @param column the column of the tile at that level
+     * @param row the row of the tile at that level
+     */
+    private record TileKey(int subsampling, int column, int row) {
+    }
+
+    private final RegionDecoder decoder;
+    private final Canvas canvas;
+
+    // access ordered, so iteration starts at the least recently drawn tile
+    private final LinkedHashMap<TileKey, Image> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long tileBytes;
+
+    // the tiles waiting for the reader, and the tile it is decoding
+    private final Deque<TileKey> queued = new ArrayDeque<>();
+    private TileKey decoding;
+    private CompletableFuture<Image> decode;
+    private boolean closed;
+
+    // the view last drawn, kept to redraw once a tile arrives
+    private double centerX;
+    private double centerY;
+    private double zoom;
+    private double shownWidth;
+    private double shownHeight;
+
+    private TiledImageLayer(RegionDecoder decoder, Canvas canvas) {
+        this.decoder = decoder;
+        this.canvas = canvas;
+    }
+
+    /**
+     * open a tiled layer for an image file
+     *
+     * @param file the image file
+     * @param canvas the canvas to draw on, laid over the image view
+     * @return the layer
+     * @throws IOException if the file cannot be read
+     */
+    public static TiledImageLayer open(File file, Canvas canvas) throws IOException {
+        return new TiledImageLayer(RegionDecoder.open(file), canvas);
+    }
+
+    /**
+     * draw the part of the image in view, and decode the tiles that are missing. Must be called
+     * on the FX thread
+     *
+     * @param centerX the centre of the view as a fraction of the width of the image
+     * @param centerY the centre of the view as a fraction of the height of the image
+     * @param zoom the zoom factor, 1 shows the whole image
+     * @param shownWidth the width the view takes on the canvas
+     * @param shownHeight the height the view takes on the canvas
+     */
+    public void render(double centerX, double centerY, double zoom, double shownWidth, double shownHeight) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.zoom = zoom;
+        this.shownWidth = shownWidth;
+        this.shownHeight = shownHeight;
+
+        GraphicsContext graphics = canvas.getGraphicsContext2D();
+        graphics.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        if (closed) {
+            return;
+        }
+
+        // the part of the image in view, in pixels of the full image
+        double viewWidth = decoder.getWidth() / zoom;
+        double viewHeight = decoder.getHeight() / zoom;
+        double viewX = centerX * decoder.getWidth() - viewWidth / 2;
+        double viewY = centerY * decoder.getHeight() - viewHeight / 2;
+        double scale = shownWidth / viewWidth;
+
+        // the view is centred on the canvas, like the image view below it
+        double offsetX = (canvas.getWidth() - shownWidth) / 2;
+        double offsetY = (canvas.getHeight() - shownHeight) / 2;
+
+        // the largest power of two that still gives at least one decoded pixel per screen pixel
+        int subsampling = 1;
+        while (subsampling * 2 <= 1 / scale) {
+            subsampling *= 2;
+        }
+        int span = TILE_SIZE * subsampling;
+
+        Set<TileKey> visible = new HashSet<>();
+        int firstColumn = (int) Math.floor(viewX / span);
+        int lastColumn = (int) Math.floor((viewX + viewWidth - 1) / span);
+        int firstRow = (int) Math.floor(viewY / span);
+        int lastRow = (int) Math.floor((viewY + viewHeight - 1) / span);
+        for (int row = Math.max(0, firstRow); row <= lastRow; row++) {
+            for (int column = Math.max(0, firstColumn); column <= lastColumn; column++) {
+                TileKey key = new TileKey(subsampling, column, row);
+                visible.add(key);
+                Image tile = tiles.get(key);
+                if (tile == null) {
+                    request(key);
+                    continue;
+                }
+                double x = column * span;
+                double y = row * span;
+                double width = Math.min(span, decoder.getWidth() - x);
+                double height = Math.min(span, decoder.getHeight() - y);
+                graphics.drawImage(tile, offsetX + (x - viewX) * scale, offsetY + (y - viewY) * scale, width * scale, height * scale);
+            }
+        }
+
+        // tiles that scrolled out of view before their decode finished are not needed any more
+        queued.removeIf(key -> !visible.contains(key));
+        if (decoding != null && !visible.contains(decoding)) {
+            decode.cancel(false);
+        }
+        next();
+    }
+
+    /**
+     * clear the canvas, for when the image view is sharp enough on its own
+     */
+    public void clear() {
+        canvas.getGraphicsContext2D().clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+    }
+
+    /**
+     * cancel the queued decodes, drop the tiles and close the file
+     */
+    public void close() {
+        closed = true;
+        queued.clear();
+        if (decode != null) {
+            decode.cancel(false);
+        }
+        tiles.clear();
+        clear();
+        // the reader may still be decoding a region, close it once that is done without waiting for it here
+        DecodeScheduler.submit(Priority.VISIBLE, () -> {
+            decoder.close();
+            return null;
+        });
+    }
+
+    /**
+     * queue the decode of a tile, it is redrawn once it is ready
+     *
+     * @param key the tile
+     */
+    private void request(TileKey key) {
+        if (key.equals(decoding) || queued.contains(key)) {
+            return;
+        }
+        queued.addLast(key);
+    }
+
+    /**
+     * hand the next queued tile to the scheduler once the reader is free
+     */
+    private void next() {
+        if (decode != null || closed || queued.isEmpty()) {
+            return;
+        }
+        TileKey key = queued.pollFirst();
+        int span = TILE_SIZE * key.subsampling();
+        Rectangle region = new Rectangle(key.column() * span, key.row() * span, span, span);
+        CompletableFuture<Image> future = DecodeScheduler.submit(Priority.VISIBLE, () -> {
+            try {
+                return toImage(decoder.decode(region, key.subsampling()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        decoding = key;
+        decode = future;
+        future.whenComplete((tile, error) -> Platform.runLater(() -> {
+            if (decode != future) {
+                return;
+            }
+            decoding = null;
+            decode = null;
+            if (closed) {
+                return;
+            }
+            // the blurry image below stays visible where a tile cannot be decoded
+            if (tile != null) {
+                store(key, tile);
+                render(centerX, centerY, zoom, shownWidth, shownHeight);
+            } else {
+                next();
+            }
+        }));
+    }
+
+    /**
+     * add a tile to the cache and evict the least recently drawn tiles beyond the bound
+     *
+     * @param key the tile
+     * @param tile the decoded tile
+     */
+    private void store(TileKey key, Image tile) {
+        tiles.put(key, tile);
+        tileBytes += (long) tile.getWidth() * (long) tile.getHeight() * 4;
+        Iterator<Map.Entry<TileKey, Image>> eldest = tiles.entrySet().iterator();
+        while (tileBytes > MAX_TILE_BYTES && eldest.hasNext()) {
+            Image evicted = eldest.next().getValue();
+            tileBytes -= (long) evicted.getWidth() * (long) evicted.getHeight() * 4;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * copy a decoded tile into an image the canvas can draw
+     *
+     * @param decoded the decoded tile
+     * @return the tile as an FX image
+     */
+    static Image toImage(BufferedImage decoded) {
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        int[] argb = decoded.getRGB(0, 0, width, height, null, 0, width);
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
+        return image;
+    }
+}
@@ -0,0 +1,186 @@
+package controller;
+
+// Java imports
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// JavaFX imports
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+/**
+ * Loads each FXML view of the application once and keeps its scene and controller, so going
+ * back and forth between screens swaps scenes instead of parsing the FXML, creating the
+ * controllers by reflection and applying the CSS again. The controllers are reused as well: the
+ * {@code start} method of every controller resets the state of the view and binds it to the new
+ * data, and callers call it on the controller they get back from {@link #show}.
+ * <p>
+ * Views can be loaded ahead of time in the background with {@link #prewarm}, FXML loading does
+ * not need the FX thread as long as the nodes are not shown yet. The first control created also
+ * parses the stylesheet of the default theme, so the first view loaded in the background takes
+ * that off the FX thread too. The scenes themselves are created on the FX thread when they are
+ * first shown.
+ *
+ * @author ks1686
+ */
+public final class ViewRegistry {
+
+    // every window of the application opens at this size
+    private static final double WIDTH = 800;
+    private static final double HEIGHT = 600;
+
+    /**
+     * The views of the application.
+     */
+    public enum View {
+        LOGIN("/view/login.fxml"),
+        HOMEPAGE("/view/homepage.fxml"),
+        ADMIN_HOMEPAGE("/view/adminhomepage.fxml"),
+        GALLERY("/view/gallery.fxml"),
+        SEARCH_RESULTS("/view/searchresults.fxml"),
+        EDIT_TAGS("/view/edittags.fxml"),
+        CHOOSE_ALBUM("/view/choosealbum.fxml"),
+        SEPARATE_PHOTO_DISPLAY("/view/separatephotodisplay.fxml"),
+        SLIDESHOW("/view/slideshowview.fxml");
+
+        private final String path;
+
+        View(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * A loaded view.
+     *
+     * @param root the root of the scene graph
+     * @param controller the controller of the view
+     */
+    private record Loaded(Parent root, Object controller) {
+    }
+
+    // loads views ahead of time, one at a time so it never competes with the FX thread for long
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "view-prewarm");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // only used on the FX thread
+    private static final Map<View, Scene> SCENES = new EnumMap<>(View.class);
+    private static final Map<View, Object> CONTROLLERS = new EnumMap<>(View.class);
+    private static final Map<View, CompletableFuture<Loaded>> WARMING = new EnumMap<>(View.class);
+
+    private ViewRegistry() {
+    }
+
+    /**
+     * show a view in a window, loading it the first time. A view can only be in one window at a
+     * time: a view left in a window that was closed is moved to the new window, and a view that
+     * is open in another window is loaded again for the new one. Must be called on the FX thread
+     *
+     * @param stage the window to show the view in
+     * @param view the view
+     * @param <C> the type of the controller of the view
+     * @return the controller of the view, to start with the data to show
+     * @throws IOException if the FXML of the view cannot be loaded
+     */
+    @SuppressWarnings("unchecked")
+    public static <C> C show(Stage stage, View view) throws IOException {
+        Scene scene = SCENES.get(view);
+        if (scene == null) {
+            Loaded loaded = take(view);
+            scene = new Scene(loaded.root(), WIDTH, HEIGHT);
+            SCENES.put(view, scene);
+            CONTROLLERS.put(view, loaded.controller());
+        }
+
+        Window previous = scene.getWindow();
+        if (previous != null && previous != stage) {
+            if (previous.isShowing()) {
+                // for example a second slideshow, the window gets its own copy of the view
+                Loaded copy = load(view);
+                stage.setScene(new Scene(copy.root(), WIDTH, HEIGHT));
+                stage.show();
+                return (C) copy.controller();
+            }
+            // a scene belongs to one window, take it out of the window that was closed
+            ((Stage) previous).setScene(null);
+        }
+        if (stage.getScene() != scene) {
+            stage.setScene(scene);
+        }
+        stage.show();
+        return (C) CONTROLLERS.get(view);
+    }
+
+    /**
+     * load views in the background, so showing them for the first time does not load them. Views
+     * are loaded in the given order. Must be called on the FX thread
+     *
+     * @param views the views
+     * @return a future completed once the views are loaded, whether or not they loaded without
+     *         errors; showing a view that failed to load reports the error
+     */
+    public static CompletableFuture<Void> prewarm(View... views) {
+        List<CompletableFuture<Loaded>> loads = new ArrayList<>();
+        for (View view : views) {
+            if (!SCENES.containsKey(view) && !WARMING.containsKey(view)) {
+                WARMING.put(view, CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return load(view);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, LOADER));
+            }
+            if (WARMING.containsKey(view)) {
+                loads.add(WARMING.get(view));
+            }
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).handle((result, error) -> null);
+    }
+
+    /**
+     * get a view loaded ahead of time, waiting for it if it is still loading, or load it now
+     *
+     * @param view the view
+     * @return the loaded view
+     * @throws IOException if the FXML of the view cannot be loaded
+     */
+    private static Loaded take(View view) throws IOException {
+        CompletableFuture<Loaded> warming = WARMING.remove(view);
+        if (warming != null) {
+            try {
+                return warming.join();
+            } catch (CompletionException e) {
+                // load it again on this thread, and report the error from there if it fails again
+            }
+        }
+        return load(view);
+    }
+
+    /**
+     * load the FXML of a view
+     *
+     * @param view the view
+     * @return the root and controller of the view
+     * @throws IOException if the FXML cannot be loaded
+     */
+    private static Loaded load(View view) throws IOException {
+        FXMLLoader loader = new FXMLLoader(ViewRegistry.class.getResource(view.path));
+        Parent root = loader.load();
+        return new Loaded(root, loader.getController());
+    }
+}
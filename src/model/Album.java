@@ -1,10 +1,17 @@
 package model;
 
 // Java imports
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Map;
 
 /**
@@ -13,12 +20,25 @@ import java.util.Map;
  * photos added to it, removed from it, and moved to another album. An album can
  * be searched for photos based on tags or dates. An album can have its name
  * changed. An album can have its start and end dates retrieved.
+ * <p>
+ * Every photo added to or removed from the album, and every change to its name, is published on
+ * the {@link ModelEventBus}, so views can update only what changed.
+ * <p>
+ * The list of photos is copy-on-write: every change publishes a new immutable list, so
+ * {@link #getPhotos} returns a snapshot that any thread can read without locking while the
+ * album keeps changing. Changes are serialized by the album's lock.
  *
  * @author jacobjude
  */
 public class Album implements Serializable {
-    private String albumName;
-    private List<Photo> photos;
+
+    // the implicit UID of the albums saved before the fields were volatile, so those libraries still read
+    @Serial
+    private static final long serialVersionUID = -2669264497919408759L;
+
+    private volatile String albumName;
+    // immutable, replaced as a whole on every change
+    private volatile List<Photo> photos;
 
     /**
      * Creates an album with the given name and an empty list of photos.
@@ -50,7 +70,7 @@ public class Album implements Serializable {
         }
 
         this.albumName = albumName;
-        this.photos = photos;
+        this.photos = List.copyOf(photos);
     }
 
     /**
@@ -59,7 +79,31 @@ public class Album implements Serializable {
      * @param photo the photo to add
      */
     public void addPhoto(Photo photo) {
-        this.photos.add(photo); // may need to catch an exception here?
+        addPhotos(List.of(photo));
+    }
+
+    /**
+     * Adds photos to the album, publishing the new list of photos once for all of them.
+     *
+     * @param added the photos to add
+     */
+    public void addPhotos(Collection<Photo> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            int first = this.photos.size();
+            List<Photo> next = new ArrayList<>(first + added.size());
+            next.addAll(this.photos);
+            next.addAll(added);
+            this.photos = Collections.unmodifiableList(next);
+
+            List<ModelEvent> events = new ArrayList<>(added.size());
+            for (int index = first; index < next.size(); index++) {
+                events.add(new ModelEvent.PhotoAdded(this, next.get(index), index));
+            }
+            ModelEventBus.publish(events);
+        }
     }
 
     /**
@@ -68,7 +112,7 @@ public class Album implements Serializable {
      * @param filepath the filepath of the photo to add
      */
     public void addPhoto(String filepath) {
-        this.photos.add(new Photo(filepath)); // may need to catch an exception here?
+        addPhoto(new Photo(filepath)); // may need to catch an exception here?
     }
 
     /**
@@ -77,16 +121,74 @@ public class Album implements Serializable {
      * @param photo the photo to remove
      */
     public void removePhoto(Photo photo) {
-        this.photos.remove(photo);
+        removePhotos(List.of(photo));
+    }
+
+    /**
+     * Removes photos from the album, publishing the new list of photos once for all of them.
+     * The removed photos are reported last first, so every index is the position the photo had
+     * just before it was removed.
+     *
+     * @param removed the photos to remove
+     */
+    public void removePhotos(Collection<Photo> removed) {
+        Set<Photo> removing = Collections.newSetFromMap(new IdentityHashMap<>());
+        removing.addAll(removed);
+        synchronized (this) {
+            List<Photo> before = this.photos;
+            List<Photo> next = new ArrayList<>(before.size());
+            for (Photo photo : before) {
+                if (!removing.contains(photo)) {
+                    next.add(photo);
+                }
+            }
+            if (next.size() == before.size()) {
+                return;
+            }
+            this.photos = Collections.unmodifiableList(next);
+
+            List<ModelEvent> events = new ArrayList<>(before.size() - next.size());
+            for (int index = before.size() - 1; index >= 0; index--) {
+                if (removing.contains(before.get(index))) {
+                    events.add(new ModelEvent.PhotoRemoved(this, before.get(index), index));
+                }
+            }
+            ModelEventBus.publish(events);
+        }
     }
 
     /**
-     * Gets a photo from the album.
+     * Publishes that the file of a photo of the album was moved or modified. Changes to the
+     * caption and tags of a photo are published by the photo itself.
      *
-     * @return arrayList of photos
+     * @param photo the photo whose file changed
+     */
+    public synchronized void photoChanged(Photo photo) {
+        if (getPhotos().contains(photo)) {
+            ModelEventBus.publish(new ModelEvent.PhotoChanged(this, photo));
+        }
+    }
+
+    /**
+     * read an album, making the photos of an album saved before they were copy-on-write immutable
+     *
+     * @param in the stream to read from
+     * @throws IOException if the album cannot be read
+     * @throws ClassNotFoundException if a class of the album is not found
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        photos = Collections.unmodifiableList(new ArrayList<>(photos));
+    }
+
+    /**
+     * Gets the photos of the album.
+     *
+     * @return an immutable snapshot of the photos, which does not change when the album does
      */
     public List<Photo> getPhotos() {
-        return new ArrayList<>(this.photos);
+        return this.photos;
     }
 
     /**
@@ -104,7 +206,7 @@ public class Album implements Serializable {
      * @return the size of the album
      */
     public int getSize() {
-        return this.photos.size();
+        return getPhotos().size();
     }
 
     /**
@@ -120,7 +222,13 @@ public class Album implements Serializable {
         } else if (albumName.isEmpty()) {
             throw new IllegalArgumentException("albumName cannot be empty");
         }
-        this.albumName = albumName;
+        synchronized (this) {
+            String oldName = this.albumName;
+            this.albumName = albumName;
+            if (!oldName.equals(albumName)) {
+                ModelEventBus.publish(new ModelEvent.AlbumRenamed(this, oldName, albumName));
+            }
+        }
     }
 
     /**
@@ -131,7 +239,7 @@ public class Album implements Serializable {
     public String toString() {
         // get the toString of all the photos in the album and album name
         String result = "";
-        for (Photo photo : this.photos) {
+        for (Photo photo : getPhotos()) {
             result += photo.toString() + "\n";
         }
         return "Album: " + this.albumName + "\nPhotos:\n" + result;
@@ -143,11 +251,12 @@ public class Album implements Serializable {
      * @return the start date of the album
      */
     public Calendar getStartDate() {
-        if (this.photos.isEmpty()) {
+        List<Photo> photos = getPhotos();
+        if (photos.isEmpty()) {
             return null;
         }
-        Calendar startDate = this.photos.getFirst().getDate();
-        for (Photo photo : this.photos) {
+        Calendar startDate = photos.getFirst().getDate();
+        for (Photo photo : photos) {
             if (photo.getDate().compareTo(startDate) < 0) {
                 startDate = photo.getDate();
             }
@@ -161,11 +270,12 @@ public class Album implements Serializable {
      * @return the end date of the album
      */
     public Calendar getEndDate() {
-        if (this.photos.isEmpty()) {
+        List<Photo> photos = getPhotos();
+        if (photos.isEmpty()) {
             return null;
         }
-        Calendar endDate = this.photos.getFirst().getDate();
-        for (Photo photo : this.photos) {
+        Calendar endDate = photos.getFirst().getDate();
+        for (Photo photo : photos) {
             if (photo.getDate().compareTo(endDate) > 0) {
                 endDate = photo.getDate();
             }
@@ -173,6 +283,20 @@ public class Album implements Serializable {
         return endDate;
     }
 
+    /**
+     * check if a search query is in a format {@link #search} takes: a date range
+     * MM/DD/YYYY-MM/DD/YYYY, a tag key=value, or two tags joined by AND or OR
+     *
+     * @param query the search query
+     * @return true if the search query is valid, false otherwise
+     */
+    public static boolean isValidQuery(String query) {
+        if (query == null || query.isEmpty()) {
+            return false;
+        }
+        return query.matches("\\d{2}/\\d{2}/\\d{4}-\\d{2}/\\d{2}/\\d{4}") || query.matches("\\w+=\\w+") || query.matches("\\w+=\\w+ (AND|OR) \\w+=\\w+");
+    }
+
     /**
      * search for photos in the album based on a query
      *
@@ -181,6 +305,19 @@ public class Album implements Serializable {
      * @throws IllegalArgumentException if the query is invalid
      */
     public List<Photo> search(String query) {
+        return search(query, getPhotos());
+    }
+
+    /**
+     * search the given photos based on a query, so a search can go through an album in parts or
+     * go through a snapshot of the photos the caller keeps using
+     *
+     * @param query the query to search for
+     * @param photos the photos to search
+     * @return the list of photos that match the query
+     * @throws IllegalArgumentException if the query is invalid
+     */
+    public static List<Photo> search(String query, List<Photo> photos) {
         // query can be a tag or a Calendar date
         // check if the query is a calendar date
         List<Photo> result = new ArrayList<>();
@@ -211,7 +348,7 @@ public class Album implements Serializable {
                 throw new IllegalArgumentException("Invalid query");
             }
 
-            for (Photo photo : this.photos) {
+            for (Photo photo : photos) {
                 if (photo.getDate().compareTo(start) >= 0 && photo.getDate().compareTo(end) <= 0) {
                     result.add(photo);
                 }
@@ -240,7 +377,7 @@ public class Album implements Serializable {
             if (tag[0].contains(" ") || tag[1].contains(" ")) {
                 throw new IllegalArgumentException("Invalid query");
             }
-            for (Photo photo : this.photos) {
+            for (Photo photo : photos) {
                 for (Map<String, String> currentTag : photo.getTags()) {
                     if (currentTag.containsKey(tag[0]) && currentTag.containsValue(tag[1])) {
                         result.add(photo);
@@ -259,7 +396,7 @@ public class Album implements Serializable {
                 if (tag2[0].contains(" ") || tag2[1].contains(" ")) {
                     throw new IllegalArgumentException("Invalid query");
                 }
-                for (Photo photo : this.photos) {
+                for (Photo photo : photos) {
                     boolean found1 = false;
                     boolean found2 = false;
                     for (Map<String, String> tag : photo.getTags()) {
@@ -279,7 +416,7 @@ public class Album implements Serializable {
                 // if the query is a conjunction
                 String[] tag1 = parts[0].split("=");
                 String[] tag2 = parts[1].split("=");
-                for (Photo photo : this.photos) {
+                for (Photo photo : photos) {
                     boolean found1 = false;
                     boolean found2 = false;
                     for (Map<String, String> tag : photo.getTags()) {
@@ -0,0 +1,122 @@
+package model;
+
+// Java imports
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A BK-tree over 64 bit hashes using hamming distance. Every child of a node is stored under its
+ * distance to that node, so by the triangle inequality a search for all values within distance d
+ * of a query only has to visit children whose distance lies within d of the query's distance to
+ * the node. For small d this visits a small fraction of the tree.
+ *
+ * @param <T> the type of the values stored with each hash
+ * @author ks1686
+ */
+public class BKTree<T> {
+
+    private Node<T> root;
+    private int size;
+
+    /**
+     * A node of the tree: a hash, every value with that hash, and children keyed by distance.
+     */
+    private static class Node<T> {
+        private final long hash;
+        private final List<T> values = new ArrayList<>(1);
+        private final Map<Integer, Node<T>> children = new HashMap<>();
+
+        private Node(long hash) {
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A value found by a search, with the distance of its hash to the query.
+     *
+     * @param value the value
+     * @param distance the hamming distance of its hash to the query
+     * @param <T> the type of the value
+     */
+    public record Match<T>(T value, int distance) {
+    }
+
+    /**
+     * add a value to the tree
+     *
+     * @param hash the hash of the value
+     * @param value the value to add
+     */
+    public void add(long hash, T value) {
+        size++;
+        if (root == null) {
+            root = new Node<>(hash);
+            root.values.add(value);
+            return;
+        }
+
+        Node<T> node = root;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance == 0) {
+                node.values.add(value);
+                return;
+            }
+            Node<T> child = node.children.get(distance);
+            if (child == null) {
+                child = new Node<>(hash);
+                child.values.add(value);
+                node.children.put(distance, child);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * find every value whose hash is within the given distance of the query
+     *
+     * @param hash the query hash
+     * @param maxDistance the largest hamming distance to include
+     * @return the matching values with their distances, in no particular order
+     */
+    public List<Match<T>> search(long hash, int maxDistance) {
+        List<Match<T>> matches = new ArrayList<>();
+        if (root == null) {
+            return matches;
+        }
+
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.pop();
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance <= maxDistance) {
+                for (T value : node.values) {
+                    matches.add(new Match<>(value, distance));
+                }
+            }
+            // only children within maxDistance of this node's distance can hold matches
+            for (int d = Math.max(1, distance - maxDistance); d <= distance + maxDistance; d++) {
+                Node<T> child = node.children.get(d);
+                if (child != null) {
+                    pending.push(child);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * get the number of values in the tree
+     *
+     * @return the number of values
+     */
+    public int size() {
+        return size;
+    }
+}
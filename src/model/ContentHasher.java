@@ -0,0 +1,76 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes content hashes of photo files. The hash is the hex encoded SHA-256 of the file bytes.
+ * Large files are streamed through memory-mapped regions of the file so they never have to be
+ * copied onto the heap, small files are read through a single heap buffer since mapping them
+ * costs more than reading them. All methods are static and safe to call from worker threads.
+ *
+ * @author ks1686
+ */
+public final class ContentHasher {
+
+    // files smaller than this are read instead of mapped
+    private static final int MAP_THRESHOLD = 256 * 1024;
+
+    // the size of each mapped region
+    private static final long REGION_SIZE = 32L * 1024 * 1024;
+
+    private ContentHasher() {
+    }
+
+    /**
+     * compute the content hash of the given file
+     *
+     * @param file the file to hash
+     * @return the hex encoded SHA-256 of the file
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    public static String hash(File file) throws UncheckedIOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading until the buffer is full
+                }
+                buffer.flip();
+                digest.update(buffer);
+            } else {
+                for (long position = 0; position < size; position += REGION_SIZE) {
+                    long length = Math.min(REGION_SIZE, size - position);
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not hash " + file, e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * create a new SHA-256 digest
+     *
+     * @return the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package model;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index from content hash to the photos with that content. The index is used to detect exact
+ * duplicates when photos are added, during bulk import, and for the admin duplicate report.
+ * A photo object that appears in several albums is only indexed once, so copying a photo to
+ * another album does not count as a duplicate.
+ *
+ * @author ks1686
+ */
+public class DuplicateIndex {
+
+    private final Map<String, List<Photo>> photosByHash = new LinkedHashMap<>();
+
+    /**
+     * create an index over all photos of the given user
+     *
+     * @param user the user to index
+     * @return the index
+     */
+    public static DuplicateIndex of(User user) {
+        DuplicateIndex index = new DuplicateIndex();
+        index.addUser(user);
+        return index;
+    }
+
+    /**
+     * create an index over all photos of all users of the application
+     *
+     * @param users the users to index
+     * @return the index
+     */
+    public static DuplicateIndex of(List<User> users) {
+        DuplicateIndex index = new DuplicateIndex();
+        for (User user : users) {
+            index.addUser(user);
+        }
+        return index;
+    }
+
+    /**
+     * add every photo of the given user to the index
+     *
+     * @param user the user to add
+     */
+    public void addUser(User user) {
+        for (Album album : user.getAlbums()) {
+            for (Photo photo : album.getPhotos()) {
+                add(photo);
+            }
+        }
+    }
+
+    /**
+     * add a photo to the index
+     *
+     * @param photo the photo to add
+     * @return true if the photo was added, false if it has no hash or is already indexed
+     */
+    public boolean add(Photo photo) {
+        String hash = photo.getContentHash();
+        if (hash == null) {
+            return false;
+        }
+        List<Photo> photos = photosByHash.computeIfAbsent(hash, k -> new ArrayList<>(1));
+        for (Photo indexed : photos) {
+            if (indexed == photo) {
+                return false;
+            }
+        }
+        photos.add(photo);
+        return true;
+    }
+
+    /**
+     * find an indexed photo with the given content hash
+     *
+     * @param hash the content hash to look for
+     * @return the first photo indexed with the hash, or null if there is none
+     */
+    public Photo find(String hash) {
+        List<Photo> photos = photosByHash.get(hash);
+        return photos == null ? null : photos.getFirst();
+    }
+
+    /**
+     * get all photos indexed with the given content hash
+     *
+     * @param hash the content hash to look for
+     * @return the photos with the hash
+     */
+    public List<Photo> findAll(String hash) {
+        return Collections.unmodifiableList(photosByHash.getOrDefault(hash, List.of()));
+    }
+
+    /**
+     * get every group of two or more distinct photos with the same content
+     *
+     * @return the duplicate groups, keyed by content hash
+     */
+    public Map<String, List<Photo>> getDuplicateGroups() {
+        Map<String, List<Photo>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Photo>> entry : photosByHash.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                groups.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+            }
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,282 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+
+/**
+ * Reads the capture date of a photo from its EXIF metadata without decoding any pixels.
+ * For JPEG files only the marker headers are walked until the APP1 "Exif" segment is found,
+ * and only that segment (at most 64 KB) is read. For TIFF files the IFDs found in the first
+ * 64 KB of the file are used. The reader prefers DateTimeOriginal, then DateTimeDigitized,
+ * then the IFD0 DateTime tag. All methods are static and safe to call from worker threads.
+ *
+ * @author ks1686
+ */
+public final class ExifReader {
+
+    // the largest possible JPEG segment, and the amount of a TIFF file we are willing to read
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024;
+
+    // JPEG markers
+    private static final int MARKER_SOI = 0xFFD8;
+    private static final int MARKER_APP1 = 0xFFE1;
+    private static final int MARKER_SOS = 0xFFDA;
+    private static final int MARKER_EOI = 0xFFD9;
+
+    // TIFF tags
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+
+    // TIFF field types
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_LONG = 4;
+
+    private ExifReader() {
+    }
+
+    /**
+     * read the capture date of the given file
+     *
+     * @param file the JPEG or TIFF file to read
+     * @return the capture date, or null if the file has no usable EXIF date
+     */
+    public static Calendar readCaptureDate(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readAt(channel, 0, 4);
+            if (header == null) {
+                return null;
+            }
+
+            int magic = header.getShort(0) & 0xFFFF;
+            if (magic == MARKER_SOI) {
+                ByteBuffer segment = findExifSegment(channel);
+                return segment == null ? null : parseTiff(segment);
+            }
+            if (magic == 0x4949 || magic == 0x4D4D) {
+                // bare TIFF file, the TIFF header starts at offset 0
+                long length = Math.min(channel.size(), MAX_SEGMENT_SIZE);
+                ByteBuffer tiff = readAt(channel, 0, (int) length);
+                return tiff == null ? null : parseTiff(tiff);
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // unreadable or malformed files simply have no capture date
+            return null;
+        }
+    }
+
+    /**
+     * walk the JPEG marker headers and return the TIFF payload of the APP1 Exif segment
+     *
+     * @param channel the open file
+     * @return the TIFF payload of the segment, or null if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static ByteBuffer findExifSegment(FileChannel channel) throws IOException {
+        long position = 2; // skip SOI
+        long size = channel.size();
+        while (position + 4 <= size) {
+            ByteBuffer markerHeader = readAt(channel, position, 4);
+            if (markerHeader == null) {
+                return null;
+            }
+            int marker = markerHeader.getShort(0) & 0xFFFF;
+            if ((marker & 0xFF00) != 0xFF00 || marker == MARKER_SOS || marker == MARKER_EOI) {
+                // metadata segments always come before the image data
+                return null;
+            }
+            if (marker == 0xFFFF) {
+                // fill byte, the real marker starts one byte later
+                position++;
+                continue;
+            }
+
+            int length = markerHeader.getShort(2) & 0xFFFF;
+            if (length < 2) {
+                return null;
+            }
+            if (marker == MARKER_APP1 && length > 8) {
+                ByteBuffer segment = readAt(channel, position + 4, length - 2);
+                if (segment == null) {
+                    return null;
+                }
+                byte[] id = new byte[6];
+                segment.get(id);
+                if (new String(id, StandardCharsets.US_ASCII).equals("Exif\0\0")) {
+                    return segment.slice();
+                }
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    /**
+     * parse a TIFF structure and return the best date it contains
+     *
+     * @param tiff the TIFF structure, starting at its byte order mark
+     * @return the capture date, or null if there is none
+     */
+    private static Calendar parseTiff(ByteBuffer tiff) {
+        if (tiff.remaining() < 8) {
+            return null;
+        }
+        int byteOrder = tiff.getShort(0) & 0xFFFF;
+        if (byteOrder == 0x4949) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder == 0x4D4D) {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return null;
+        }
+        if ((tiff.getShort(2) & 0xFFFF) != 42) {
+            return null;
+        }
+
+        int ifd0 = tiff.getInt(4);
+        String dateTime = readAsciiTag(tiff, ifd0, TAG_DATE_TIME);
+        int exifIfd = readLongTag(tiff, ifd0, TAG_EXIF_IFD);
+
+        String original = null;
+        String digitized = null;
+        if (exifIfd > 0) {
+            original = readAsciiTag(tiff, exifIfd, TAG_DATE_TIME_ORIGINAL);
+            digitized = readAsciiTag(tiff, exifIfd, TAG_DATE_TIME_DIGITIZED);
+        }
+
+        for (String candidate : new String[] {original, digitized, dateTime}) {
+            Calendar date = parseDate(candidate);
+            if (date != null) {
+                return date;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * find the entry with the given tag in an IFD
+     *
+     * @param tiff the TIFF structure
+     * @param ifdOffset the offset of the IFD within the structure
+     * @param tag the tag to look for
+     * @return the offset of the 12 byte entry, or -1 if it is not present
+     */
+    private static int findEntry(ByteBuffer tiff, int ifdOffset, int tag) {
+        if (ifdOffset < 8 || ifdOffset + 2 > tiff.limit()) {
+            return -1;
+        }
+        int count = tiff.getShort(ifdOffset) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = ifdOffset + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                return -1;
+            }
+            if ((tiff.getShort(entry) & 0xFFFF) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * read a LONG valued tag from an IFD
+     *
+     * @param tiff the TIFF structure
+     * @param ifdOffset the offset of the IFD within the structure
+     * @param tag the tag to read
+     * @return the value of the tag, or -1 if it is not present
+     */
+    private static int readLongTag(ByteBuffer tiff, int ifdOffset, int tag) {
+        int entry = findEntry(tiff, ifdOffset, tag);
+        if (entry < 0 || (tiff.getShort(entry + 2) & 0xFFFF) != TYPE_LONG) {
+            return -1;
+        }
+        return tiff.getInt(entry + 8);
+    }
+
+    /**
+     * read an ASCII valued tag from an IFD
+     *
+     * @param tiff the TIFF structure
+     * @param ifdOffset the offset of the IFD within the structure
+     * @param tag the tag to read
+     * @return the value of the tag without its terminating NUL, or null if it is not present
+     */
+    private static String readAsciiTag(ByteBuffer tiff, int ifdOffset, int tag) {
+        int entry = findEntry(tiff, ifdOffset, tag);
+        if (entry < 0 || (tiff.getShort(entry + 2) & 0xFFFF) != TYPE_ASCII) {
+            return null;
+        }
+        int count = tiff.getInt(entry + 4);
+        // values of 4 bytes or fewer are stored inline, longer ones at an offset
+        int valueOffset = count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        // compared without adding, a corrupt count near Integer.MAX_VALUE would overflow the sum
+        if (count <= 0 || valueOffset < 0 || valueOffset > tiff.limit() || count > tiff.limit() - valueOffset) {
+            return null;
+        }
+        byte[] value = new byte[count];
+        tiff.get(valueOffset, value);
+        int end = 0;
+        while (end < value.length && value[end] != 0) {
+            end++;
+        }
+        return new String(value, 0, end, StandardCharsets.US_ASCII).strip();
+    }
+
+    /**
+     * parse an EXIF date of the form "YYYY:MM:DD HH:MM:SS"
+     *
+     * @param value the value of the date tag
+     * @return the date in the local time zone, or null if the value is blank or invalid
+     */
+    private static Calendar parseDate(String value) {
+        if (value == null || !value.matches("\\d{4}:\\d{2}:\\d{2} \\d{2}:\\d{2}:\\d{2}")) {
+            return null;
+        }
+        int year = Integer.parseInt(value.substring(0, 4));
+        int month = Integer.parseInt(value.substring(5, 7));
+        int day = Integer.parseInt(value.substring(8, 10));
+        int hour = Integer.parseInt(value.substring(11, 13));
+        int minute = Integer.parseInt(value.substring(14, 16));
+        int second = Integer.parseInt(value.substring(17, 19));
+        // cameras without a clock write all zeros
+        if (year == 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            return null;
+        }
+
+        Calendar date = Calendar.getInstance();
+        date.clear();
+        date.set(year, month - 1, day, hour, minute, second);
+        return date;
+    }
+
+    /**
+     * read exactly the given number of bytes from the channel
+     *
+     * @param channel the open file
+     * @param position the position to read from
+     * @param length the number of bytes to read
+     * @return a buffer holding the bytes, or null if the file is too short
+     * @throws IOException if the file cannot be read
+     */
+    static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,57 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.Serial;
+
+/**
+ * Represents an album that is bound to a directory on disk. The photos of a folder album are the
+ * supported image files directly inside its directory; {@link FolderSync} keeps the album in
+ * step with the directory as files are added, deleted and renamed. Photos that are moved or
+ * renamed inside the directory keep their caption and tags.
+ *
+ * @author ks1686
+ */
+public class FolderAlbum extends Album {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final String directory;
+
+    /**
+     * Creates an empty folder album bound to the given directory. The album is filled by the
+     * first reconciliation scan of its {@link FolderSync}.
+     *
+     * @param albumName the name of the album
+     * @param directory the directory the album is bound to
+     * @throws NullPointerException     if albumName or directory is null
+     * @throws IllegalArgumentException if albumName is empty or directory is not a directory
+     */
+    public FolderAlbum(String albumName, File directory) throws NullPointerException, IllegalArgumentException {
+        super(albumName);
+        if (directory == null) {
+            throw new NullPointerException("directory cannot be null");
+        } else if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("directory must be an existing directory");
+        }
+        this.directory = directory.getAbsolutePath();
+    }
+
+    /**
+     * get the directory the album is bound to
+     *
+     * @return the directory of the album
+     */
+    public File getDirectory() {
+        return new File(directory);
+    }
+
+    /**
+     * toString method for the folder album
+     *
+     * @return the string representation of the folder album
+     */
+    public String toString() {
+        return "Folder " + super.toString() + "Directory: " + directory + "\n";
+    }
+}
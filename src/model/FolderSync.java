@@ -0,0 +1,398 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link FolderAlbum} in sync with its directory. A watcher thread collects the paths
+ * reported by a {@link WatchService}; once no event has arrived for a short quiet period the
+ * batch of changed paths is applied. A periodic reconciliation scan of the whole directory
+ * catches anything the watch service missed, such as changes made while the application was
+ * closed or an event overflow.
+ * <p>
+ * Only the changed paths are examined when a batch is applied. A file that disappears while a
+ * file with the same content hash appears is treated as a rename: the existing photo is moved to
+ * the new path and keeps its caption and tags. All file I/O happens on a background thread;
+ * changes to the album itself are handed to the apply executor given to {@link #start}, which
+ * the controllers set to the FX thread.
+ *
+ * @author ks1686
+ */
+public class FolderSync {
+
+    /**
+     * Listener notified, on the apply executor, after a batch of changes was applied to the album.
+     */
+    public interface Listener {
+        /**
+         * called after the album changed
+         *
+         * @param album the album that changed
+         * @param changes the photos that were added, removed, moved or modified
+         */
+        void folderChanged(FolderAlbum album, Changes changes);
+    }
+
+    /**
+     * The photos affected by one batch of changes.
+     *
+     * @param added the photos that were added to the album
+     * @param removed the photos that were removed from the album
+     * @param moved the photos whose file was renamed or moved inside the directory
+     * @param modified the photos whose file contents changed
+     */
+    public record Changes(List<Photo> added, List<Photo> removed, List<Photo> moved, List<Photo> modified) {
+        /**
+         * check if the batch changed anything
+         *
+         * @return true if no photo was affected
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && moved.isEmpty() && modified.isEmpty();
+        }
+    }
+
+    // how long the directory must be quiet before a batch is applied
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    // how often the whole directory is rescanned
+    private static final long RECONCILE_MINUTES = 5;
+
+    // one thread applies every batch of every album, so batches never overlap
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "folder-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the syncs that are running, by album
+    private static final Map<FolderAlbum, FolderSync> RUNNING = new IdentityHashMap<>();
+
+    private final FolderAlbum album;
+    private final Executor applyExecutor;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // paths reported since the last batch, guarded by this
+    private final Set<Path> pending = new HashSet<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    private WatchService watchService;
+    private ScheduledFuture<?> reconcileTask;
+
+    private FolderSync(FolderAlbum album, Executor applyExecutor) {
+        this.album = album;
+        this.applyExecutor = applyExecutor;
+    }
+
+    /**
+     * start keeping the given album in sync with its directory. Starting an album that is
+     * already running returns the running sync.
+     *
+     * @param album the album to keep in sync
+     * @param applyExecutor the executor that applies changes to the album and notifies listeners
+     * @return the sync of the album
+     */
+    public static synchronized FolderSync start(FolderAlbum album, Executor applyExecutor) {
+        FolderSync sync = RUNNING.get(album);
+        if (sync == null) {
+            sync = new FolderSync(album, applyExecutor);
+            sync.open();
+            RUNNING.put(album, sync);
+        }
+        return sync;
+    }
+
+    /**
+     * start keeping every folder album of the given user in sync
+     *
+     * @param user the user whose folder albums should be synced
+     * @param applyExecutor the executor that applies changes to the albums and notifies listeners
+     */
+    public static void startAll(User user, Executor applyExecutor) {
+        for (Album album : user.getAlbums()) {
+            if (album instanceof FolderAlbum folderAlbum) {
+                start(folderAlbum, applyExecutor);
+            }
+        }
+    }
+
+    /**
+     * get the running sync of an album
+     *
+     * @param album the album
+     * @return the sync of the album, or null if it is not running
+     */
+    public static synchronized FolderSync get(FolderAlbum album) {
+        return RUNNING.get(album);
+    }
+
+    /**
+     * stop keeping the given album in sync
+     *
+     * @param album the album to stop
+     */
+    public static synchronized void stop(FolderAlbum album) {
+        FolderSync sync = RUNNING.remove(album);
+        if (sync != null) {
+            sync.close();
+        }
+    }
+
+    /**
+     * stop keeping every folder album of the given user in sync, the albums of other users keep running
+     *
+     * @param user the user whose folder albums should be stopped
+     */
+    public static void stopAll(User user) {
+        for (Album album : user.getAlbums()) {
+            if (album instanceof FolderAlbum folderAlbum) {
+                stop(folderAlbum);
+            }
+        }
+    }
+
+    /**
+     * add a listener that is notified after each batch of changes
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * remove a listener
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * rescan the whole directory now instead of waiting for the next periodic scan
+     */
+    public void reconcileNow() {
+        SCHEDULER.execute(this::reconcile);
+    }
+
+    /**
+     * register the watch service and schedule the reconciliation scans, the first one right away
+     */
+    private void open() {
+        Path directory = album.getDirectory().toPath();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread watcher = new Thread(this::watch, "folder-watch-" + album.getAlbumName());
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException e) {
+            // without a watch service the periodic scans still keep the album in sync
+            watchService = null;
+        }
+        reconcileTask = SCHEDULER.scheduleWithFixedDelay(this::reconcile, 0, RECONCILE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * stop watching and cancel any scheduled work
+     */
+    private void close() {
+        if (reconcileTask != null) {
+            reconcileTask.cancel(false);
+        }
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+            }
+            pending.clear();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+
+    /**
+     * body of the watcher thread: collect changed paths until the watch service is closed
+     */
+    private void watch() {
+        Path directory = album.getDirectory().toPath();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                List<Path> changed = new ArrayList<>();
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    } else {
+                        changed.add(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (overflow) {
+                    reconcileNow();
+                } else {
+                    submit(changed);
+                }
+                if (!key.reset()) {
+                    // the directory itself is gone, the next scan will empty the album
+                    reconcileNow();
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the sync was stopped
+        }
+    }
+
+    /**
+     * add paths to the pending batch and restart the quiet period
+     *
+     * @param paths the changed paths
+     */
+    private synchronized void submit(List<Path> paths) {
+        pending.addAll(paths);
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = SCHEDULER.schedule(this::flush, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * mark every file in the directory and every photo of the album as changed and apply the batch
+     */
+    private void reconcile() {
+        Set<Path> paths = new HashSet<>();
+        File[] files = album.getDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                paths.add(file.toPath().toAbsolutePath());
+            }
+        }
+        // the photos are an immutable snapshot, safe to read while the apply executor changes the album
+        for (Photo photo : album.getPhotos()) {
+            paths.add(new File(photo.getFilePath()).toPath().toAbsolutePath());
+        }
+        synchronized (this) {
+            pending.addAll(paths);
+        }
+        flush();
+    }
+
+    /**
+     * apply the pending batch of changed paths
+     */
+    private void flush() {
+        Set<Path> paths;
+        synchronized (this) {
+            paths = new HashSet<>(pending);
+            pending.clear();
+            scheduledFlush = null;
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        Path directory = album.getDirectory().toPath().toAbsolutePath();
+        Map<String, Photo> members = new HashMap<>();
+        for (Photo photo : album.getPhotos()) {
+            members.put(photo.getFilePath(), photo);
+        }
+
+        List<Photo> removed = new ArrayList<>();
+        List<Photo> modified = new ArrayList<>();
+        List<File> created = new ArrayList<>();
+        for (Path path : paths) {
+            File file = path.toFile();
+            Photo member = members.get(file.getAbsolutePath());
+            boolean present = file.isFile() && path.getParent() != null && path.getParent().equals(directory)
+                    && Photo.isSupportedFile(file);
+            if (member != null && !present) {
+                removed.add(member);
+            } else if (member != null && member.isFileChanged()) {
+                String oldHash = member.getContentHash();
+                member.refresh();
+                if (oldHash != null && !oldHash.equals(member.getContentHash())) {
+                    modified.add(member);
+                }
+            } else if (member == null && present) {
+                created.add(file);
+            }
+        }
+
+        // a file that vanished while a file with the same contents appeared was renamed
+        Map<String, Photo> removedByHash = new HashMap<>();
+        for (Photo photo : removed) {
+            if (photo.getContentHash() != null) {
+                removedByHash.put(photo.getContentHash(), photo);
+            }
+        }
+        List<Photo> added = new ArrayList<>();
+        List<Photo> moved = new ArrayList<>();
+        Map<Photo, String> newPaths = new IdentityHashMap<>();
+        for (File file : created) {
+            Photo photo;
+            try {
+                photo = new Photo(file.getAbsolutePath());
+            } catch (RuntimeException e) {
+                // the file vanished again or cannot be read, the next scan will pick it up
+                continue;
+            }
+            Photo renamed = removedByHash.remove(photo.getContentHash());
+            if (renamed != null) {
+                removed.remove(renamed);
+                moved.add(renamed);
+                newPaths.put(renamed, photo.getFilePath());
+            } else {
+                added.add(photo);
+            }
+        }
+
+        Changes changes = new Changes(added, removed, moved, modified);
+        if (changes.isEmpty()) {
+            return;
+        }
+        applyExecutor.execute(() -> {
+            album.removePhotos(removed);
+            for (Map.Entry<Photo, String> entry : newPaths.entrySet()) {
+                entry.getKey().setFilePath(entry.getValue());
+            }
+            album.addPhotos(added);
+            for (Photo photo : moved) {
+                album.photoChanged(photo);
+            }
+            for (Photo photo : modified) {
+                album.photoChanged(photo);
+            }
+            for (Listener listener : listeners) {
+                listener.folderChanged(album, changes);
+            }
+        });
+    }
+}
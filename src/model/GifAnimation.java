@@ -0,0 +1,390 @@
+package model;
+
+// Java imports
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.Node;
+
+/**
+ * Decodes the frames of a GIF one at a time. Each frame of a GIF only covers part of the image
+ * and is drawn over the frames before it, so frames are composited onto a canvas the size of
+ * the image in order, following the disposal method of each frame. Only the canvas is kept
+ * between frames, so the memory an animation takes does not grow with the number of frames.
+ * The canvas is no larger than the frames asked for and never over {@link #MAX_CANVAS_PIXELS}:
+ * the frames of a larger image are subsampled while they are decoded. Frames can be scaled down
+ * while they are copied out of the canvas; the copy belongs to the caller.
+ *
+ * @author ks1686
+ */
+public class GifAnimation implements AutoCloseable {
+
+    /**
+     * the most pixels of the canvas, a full HD animation fits without being subsampled
+     */
+    public static final long MAX_CANVAS_PIXELS = 2L * 1024 * 1024;
+
+    // the delay browsers use for frames that ask for none, in milliseconds
+    private static final int DEFAULT_DELAY = 100;
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int frameCount;
+    private final int outputWidth;
+    private final int outputHeight;
+
+    // the image the frames are composited onto, and how many pixels of the image each of its pixels covers
+    private final BufferedImage canvas;
+    private final int subsampling;
+
+    // the last frame drawn onto the canvas, how to dispose of it, and where it was drawn
+    private int composited = -1;
+    private String disposal;
+    private int frameX;
+    private int frameY;
+    private int frameWidth;
+    private int frameHeight;
+
+    // the canvas before the last frame was drawn, kept for frames that restore it
+    private BufferedImage previous;
+
+    private GifAnimation(ImageInputStream input, ImageReader reader, double size, boolean countFrames) throws IOException {
+        this.input = input;
+        this.reader = reader;
+        // counting the frames reads the whole file, -1 while they are not counted
+        this.frameCount = countFrames ? reader.getNumImages(true) : -1;
+
+        // the logical screen is the size of the whole image, frames may be smaller
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        IIOMetadata stream = reader.getStreamMetadata();
+        if (stream != null) {
+            Node screen = child((IIOMetadataNode) stream.getAsTree(stream.getNativeMetadataFormatName()), "LogicalScreenDescriptor");
+            if (screen != null) {
+                width = Math.max(1, attribute(screen, "logicalScreenWidth", width));
+                height = Math.max(1, attribute(screen, "logicalScreenHeight", height));
+            }
+        }
+
+        // a canvas larger than the frames asked for only costs memory, and a huge one could take gigabytes
+        int n = size <= 0 ? 1 : Math.max(1, (int) (Math.max(width, height) / size));
+        while ((long) ceilDiv(width, n) * ceilDiv(height, n) > MAX_CANVAS_PIXELS) {
+            n++;
+        }
+        this.subsampling = n;
+        this.canvas = new BufferedImage(ceilDiv(width, n), ceilDiv(height, n), BufferedImage.TYPE_INT_ARGB);
+
+        double scale = size <= 0 ? 1 : Math.min(1, size / Math.max(canvas.getWidth(), canvas.getHeight()));
+        this.outputWidth = Math.max(1, (int) Math.round(canvas.getWidth() * scale));
+        this.outputHeight = Math.max(1, (int) Math.round(canvas.getHeight() * scale));
+    }
+
+    /**
+     * open a GIF
+     *
+     * @param file the GIF file
+     * @param size the largest width and height of the frames, or 0 for the size of the image
+     * @return the animation
+     * @throws IOException if the file cannot be read or is not a GIF
+     */
+    public static GifAnimation open(File file, double size) throws IOException {
+        return open(file, size, true);
+    }
+
+    /**
+     * open a GIF
+     *
+     * @param file the GIF file
+     * @param size the largest width and height of the frames, or 0 for the size of the image
+     * @param countFrames whether to count the frames, which reads the whole file
+     * @return the animation
+     * @throws IOException if the file cannot be read or is not a GIF
+     */
+    private static GifAnimation open(File file, double size, boolean countFrames) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("gif");
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No GIF reader available");
+        }
+        ImageReader reader = readers.next();
+        // frames are read in order, but the animation starts over after the last one, and the metadata holds the delays
+        reader.setInput(input, false, false);
+        try {
+            return new GifAnimation(input, reader, size, countFrames);
+        } catch (IOException | RuntimeException e) {
+            reader.dispose();
+            input.close();
+            throw e instanceof IOException io ? io : new IOException("Cannot decode " + file, e);
+        }
+    }
+
+    /**
+     * decode only the first frame of a GIF, for places that show it as a still image
+     *
+     * @param file the GIF file
+     * @param size the largest width and height of the frame, or 0 for the size of the image
+     * @return the first frame
+     * @throws IOException if the file cannot be decoded
+     */
+    public static BufferedImage firstFrame(File file, double size) throws IOException {
+        // the frames are not counted, only the start of the file is read
+        try (GifAnimation animation = open(file, size, false)) {
+            return animation.frame(0);
+        }
+    }
+
+    /**
+     * get the number of frames
+     *
+     * @return the number of frames, 1 for a still GIF
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * get the memory the canvas of the animation can take, with the copy of it kept for frames
+     * that restore the canvas before them
+     *
+     * @return the size in bytes
+     */
+    public long getCanvasBytes() {
+        return 2L * canvas.getWidth() * canvas.getHeight() * 4;
+    }
+
+    /**
+     * get the width of the frames this animation returns
+     *
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return outputWidth;
+    }
+
+    /**
+     * get the height of the frames this animation returns
+     *
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * get how long a frame is shown
+     *
+     * @param index the index of the frame
+     * @return the delay in milliseconds
+     * @throws IOException if the metadata of the frame cannot be read
+     */
+    public synchronized int getDelay(int index) throws IOException {
+        Node control = child(metadata(index), "GraphicControlExtension");
+        int delay = control == null ? 0 : attribute(control, "delayTime", 0) * 10;
+        // like browsers, treat delays too short to see as the default
+        return delay < 20 ? DEFAULT_DELAY : delay;
+    }
+
+    /**
+     * decode a frame. Frames are cheapest to decode in order, going back to an earlier frame
+     * composites the frames from the first one again
+     *
+     * @param index the index of the frame
+     * @return a copy of the frame at the output size
+     * @throws IOException if the frame cannot be decoded
+     */
+    public synchronized BufferedImage frame(int index) throws IOException {
+        if (index < 0 || (frameCount >= 0 && index >= frameCount)) {
+            throw new IndexOutOfBoundsException("No frame " + index + " in " + frameCount + " frames");
+        }
+        if (index <= composited) {
+            clear(0, 0, canvas.getWidth(), canvas.getHeight());
+            composited = -1;
+            disposal = null;
+            previous = null;
+        }
+        while (composited < index) {
+            composite(composited + 1);
+        }
+        return output();
+    }
+
+    /**
+     * close the file
+     */
+    @Override
+    public synchronized void close() {
+        reader.dispose();
+        try {
+            input.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * dispose of the last frame and draw the next one onto the canvas
+     *
+     * @param index the index of the next frame
+     * @throws IOException if the frame cannot be decoded
+     */
+    private void composite(int index) throws IOException {
+        // take the last frame off the canvas the way it asked for
+        if ("restoreToBackgroundColor".equals(disposal)) {
+            clear(frameX, frameY, frameWidth, frameHeight);
+        } else if ("restoreToPrevious".equals(disposal) && previous != null) {
+            Graphics2D graphics = canvas.createGraphics();
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.drawImage(previous, 0, 0, null);
+            graphics.dispose();
+        }
+
+        IIOMetadataNode metadata = metadata(index);
+        Node descriptor = child(metadata, "ImageDescriptor");
+        Node control = child(metadata, "GraphicControlExtension");
+        disposal = control == null ? "none" : control.getAttributes().getNamedItem("disposalMethod").getNodeValue();
+        if ("restoreToPrevious".equals(disposal)) {
+            previous = copy(canvas);
+        }
+
+        // a subsampled canvas gets subsampled frames, the reader decodes them at that size
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        BufferedImage raw = reader.read(index, param);
+        frameX = (descriptor == null ? 0 : attribute(descriptor, "imageLeftPosition", 0)) / subsampling;
+        frameY = (descriptor == null ? 0 : attribute(descriptor, "imageTopPosition", 0)) / subsampling;
+        frameWidth = raw.getWidth();
+        frameHeight = raw.getHeight();
+        Graphics2D graphics = canvas.createGraphics();
+        graphics.drawImage(raw, frameX, frameY, null);
+        graphics.dispose();
+        composited = index;
+    }
+
+    /**
+     * copy the canvas out at the output size, halving it in steps so the scaled frame keeps the
+     * detail bilinear filtering would skip over
+     *
+     * @return the frame
+     */
+    private BufferedImage output() {
+        BufferedImage scaled = canvas;
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        do {
+            width = Math.max(outputWidth, width / 2);
+            height = Math.max(outputHeight, height / 2);
+            BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(scaled, 0, 0, width, height, null);
+            graphics.dispose();
+            scaled = step;
+        } while (width > outputWidth || height > outputHeight);
+        return scaled;
+    }
+
+    /**
+     * make the given part of the canvas transparent
+     *
+     * @param x the left of the part
+     * @param y the top of the part
+     * @param width the width of the part
+     * @param height the height of the part
+     */
+    private void clear(int x, int y, int width, int height) {
+        Graphics2D graphics = canvas.createGraphics();
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fillRect(x, y, width, height);
+        graphics.dispose();
+    }
+
+    /**
+     * get the metadata of a frame in the GIF format
+     *
+     * @param index the index of the frame
+     * @return the root of the metadata tree
+     * @throws IOException if the metadata cannot be read
+     */
+    private IIOMetadataNode metadata(int index) throws IOException {
+        IIOMetadata metadata = reader.getImageMetadata(index);
+        return (IIOMetadataNode) metadata.getAsTree(metadata.getNativeMetadataFormatName());
+    }
+
+    /**
+     * find a child of a metadata node by name
+     *
+     * @param node the node
+     * @param name the name of the child
+     * @return the child, or null if there is none
+     */
+    private static Node child(Node node, String name) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals(name)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * read a numeric attribute of a metadata node
+     *
+     * @param node the node
+     * @param name the name of the attribute
+     * @param fallback the value to use if the attribute is missing or not a number
+     * @return the value of the attribute
+     */
+    private static int attribute(Node node, String name, int fallback) {
+        Node attribute = node.getAttributes().getNamedItem(name);
+        if (attribute == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(attribute.getNodeValue());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * divide rounding up, so a subsampled canvas still covers the last pixels of the image
+     *
+     * @param value the value
+     * @param divisor the divisor
+     * @return the quotient rounded up
+     */
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * copy an image
+     *
+     * @param image the image
+     * @return the copy
+     */
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = copy.createGraphics();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return copy;
+    }
+}
@@ -0,0 +1,161 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Detects the format of an image file from its magic bytes and reads its width and height from
+ * the format's header: the IHDR chunk of a PNG, the logical screen descriptor of a GIF, the DIB
+ * header of a BMP, or the first SOF segment of a JPEG. Only a few small reads are made and no
+ * pixels are decoded, so probing is cheap enough to do for every file of a bulk import or a
+ * folder scan. All methods are static and safe to call from worker threads.
+ *
+ * @author ks1686
+ */
+public final class ImageProbe {
+
+    /**
+     * The image formats the application supports.
+     */
+    public enum Format {
+        BMP, GIF, JPEG, PNG
+    }
+
+    /**
+     * The format and dimensions of an image file.
+     *
+     * @param format the format of the file
+     * @param width the width of the image in pixels
+     * @param height the height of the image in pixels
+     */
+    public record Info(Format format, int width, int height) {
+    }
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private ImageProbe() {
+    }
+
+    /**
+     * probe the given file
+     *
+     * @param file the file to probe
+     * @return the format and dimensions of the file, or null if it is not a supported image
+     */
+    public static Info probe(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ExifReader.readAt(channel, 0, (int) Math.min(32, channel.size()));
+            if (header == null || header.remaining() < 4) {
+                return null;
+            }
+
+            if (startsWith(header, PNG_SIGNATURE) && header.remaining() >= 24) {
+                // the IHDR chunk always comes first: length, type, then width and height
+                return valid(Format.PNG, header.getInt(16), header.getInt(20));
+            }
+            if (startsWith(header, "GIF87a".getBytes()) || startsWith(header, "GIF89a".getBytes())) {
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                return valid(Format.GIF, header.getShort(6) & 0xFFFF, header.getShort(8) & 0xFFFF);
+            }
+            if (header.get(0) == 'B' && header.get(1) == 'M' && header.remaining() >= 26) {
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                int dibSize = header.getInt(14);
+                if (dibSize == 12) {
+                    // OS/2 BITMAPCOREHEADER has 16 bit dimensions
+                    return valid(Format.BMP, header.getShort(18) & 0xFFFF, header.getShort(20) & 0xFFFF);
+                }
+                // a negative height means the rows are stored top down
+                return valid(Format.BMP, header.getInt(18), Math.abs(header.getInt(22)));
+            }
+            if ((header.getShort(0) & 0xFFFF) == 0xFFD8) {
+                return probeJpeg(channel);
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * walk the JPEG marker headers until the first start of frame segment
+     *
+     * @param channel the open file
+     * @return the dimensions from the frame header, or null if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static Info probeJpeg(FileChannel channel) throws IOException {
+        long position = 2; // skip SOI
+        long size = channel.size();
+        while (position + 4 <= size) {
+            ByteBuffer markerHeader = ExifReader.readAt(channel, position, 4);
+            if (markerHeader == null) {
+                return null;
+            }
+            int marker = markerHeader.getShort(0) & 0xFFFF;
+            if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || marker == 0xFFD9) {
+                // reached the image data without finding a frame header
+                return null;
+            }
+            if (marker == 0xFFFF) {
+                position++;
+                continue;
+            }
+
+            int length = markerHeader.getShort(2) & 0xFFFF;
+            // SOF0 to SOF15, except DHT (C4), JPG (C8) and DAC (CC) which share the range
+            if (marker >= 0xFFC0 && marker <= 0xFFCF && marker != 0xFFC4 && marker != 0xFFC8 && marker != 0xFFCC) {
+                ByteBuffer frame = ExifReader.readAt(channel, position + 4, 5);
+                if (frame == null) {
+                    return null;
+                }
+                // precision, then height and width. A zero height is legal (it is defined later by a
+                // DNL segment), so the file is still accepted as a JPEG with unknown dimensions
+                return new Info(Format.JPEG, frame.getShort(3) & 0xFFFF, frame.getShort(1) & 0xFFFF);
+            }
+            if (length < 2) {
+                return null;
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    /**
+     * check if the buffer starts with the given bytes
+     *
+     * @param buffer the buffer to check
+     * @param prefix the expected bytes
+     * @return true if the buffer starts with the prefix
+     */
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * create an info if the dimensions are plausible
+     *
+     * @param format the detected format
+     * @param width the width read from the header
+     * @param height the height read from the header
+     * @return the info, or null if either dimension is not positive
+     */
+    private static Info valid(Format format, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        return new Info(format, width, height);
+    }
+}
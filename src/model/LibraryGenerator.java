@@ -0,0 +1,331 @@
+package model;
+
+// Java imports
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates libraries of any size for benchmarks and load tests, from tens to millions of photos,
+ * without importing a single photo by hand. The same seed always generates the same library.
+ * <p>
+ * Each user gets albums of very different sizes, a few large and many small, and each album
+ * covers a stretch of days between two dates, like the photos of a trip or an event. The photos
+ * are tagged with the user's tag types, and the values of each tag type follow a Zipf
+ * distribution, so a few values are on most photos and most values are rare, as with real
+ * people and places.
+ * <p>
+ * The photos share a number of small placeholder images written to the user's photos folder,
+ * each photo with its own date and tags. Only the placeholders are read from disk, so the
+ * number of photos is bounded by memory, not by the file system. Photos of the same placeholder
+ * have the same contents, so they show up as duplicates of each other.
+ * <p>
+ * Run it with {@code java model.LibraryGenerator [options]}, see {@link #main}. The users are
+ * added to the library in {@link Photos#storeDir}, which can be moved with
+ * {@code -Dphotos.storeDir}.
+ *
+ * @author ks1686
+ */
+public final class LibraryGenerator {
+
+    private static final Logger LOGGER = Logger.getLogger(LibraryGenerator.class.getName());
+
+    // the side of the placeholder images in pixels
+    private static final int IMAGE_SIZE = 16;
+
+    // the chance a photo has a tag of each of the user's tag types, by position in the list
+    private static final double[] TAG_CHANCES = {0.5, 0.7, 0.3};
+
+    // the longest an album lasts, in days
+    private static final int MAX_ALBUM_DAYS = 30;
+
+    private final long seed;
+    private int albums = 100;
+    private int photos = 10_000;
+    private int images = 256;
+    private int tagValues = 1000;
+    private double skew = 1.0;
+    private LocalDate from = LocalDate.of(2015, 1, 1);
+    private LocalDate to = LocalDate.of(2025, 1, 1);
+
+    /**
+     * create a generator
+     *
+     * @param seed the seed, the same seed generates the same library
+     */
+    public LibraryGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * set the number of albums of each user
+     *
+     * @param albums the number of albums, at least 1
+     */
+    public void setAlbums(int albums) {
+        this.albums = requirePositive(albums, "albums");
+    }
+
+    /**
+     * set the number of photos of each user, across all of their albums
+     *
+     * @param photos the number of photos
+     */
+    public void setPhotos(int photos) {
+        if (photos < 0) {
+            throw new IllegalArgumentException("photos cannot be negative");
+        }
+        this.photos = photos;
+    }
+
+    /**
+     * set the number of placeholder images the photos of each user share
+     *
+     * @param images the number of images, at least 1
+     */
+    public void setImages(int images) {
+        this.images = requirePositive(images, "images");
+    }
+
+    /**
+     * set the number of values of each tag type
+     *
+     * @param tagValues the number of values, at least 1
+     */
+    public void setTagValues(int tagValues) {
+        this.tagValues = requirePositive(tagValues, "tag values");
+    }
+
+    /**
+     * set the exponent of the Zipf distribution of the tag values and the album sizes
+     *
+     * @param skew the exponent, 0 for a uniform distribution and about 1 for real libraries
+     */
+    public void setSkew(double skew) {
+        if (skew < 0) {
+            throw new IllegalArgumentException("skew cannot be negative");
+        }
+        this.skew = skew;
+    }
+
+    /**
+     * set the dates the photos are taken between
+     *
+     * @param from the first day
+     * @param to the day after the last day
+     */
+    public void setDates(LocalDate from, LocalDate to) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * generate a user, writing the placeholder images to the user's photos folder
+     *
+     * @param username the name of the user
+     * @return the user
+     * @throws IOException if the placeholder images cannot be written or read
+     */
+    public User generateUser(String username) throws IOException {
+        // each user from its own seed, so a user does not change when more users are generated
+        Random random = new Random(seed ^ username.hashCode());
+        User user = new User(username);
+
+        List<Photo> files = writePlaceholders(new File(Photos.userDirOf(username), "photos"), random);
+
+        List<String> tagTypes = user.getTagTypes();
+        Zipf values = new Zipf(tagValues, skew);
+
+        // a few albums get most of the photos
+        int[] sizes = new int[albums];
+        Zipf albumSizes = new Zipf(albums, skew);
+        for (int i = 0; i < photos; i++) {
+            sizes[albumSizes.next(random)]++;
+        }
+
+        long days = to.toEpochDay() - from.toEpochDay();
+        ZoneId zone = ZoneId.systemDefault();
+        Calendar date = Calendar.getInstance();
+        for (int a = 0; a < albums; a++) {
+            // the album covers a stretch of days, the photos are taken at any time during it
+            int albumDays = 1 + random.nextInt((int) Math.min(MAX_ALBUM_DAYS, days));
+            long start = from.plusDays((long) (random.nextDouble() * (days - albumDays + 1))).atStartOfDay(zone).toInstant().toEpochMilli();
+            long length = albumDays * 86_400_000L;
+
+            List<Photo> albumPhotos = new ArrayList<>(sizes[a]);
+            for (int i = 0; i < sizes[a]; i++) {
+                List<Map<String, String>> tags = new ArrayList<>();
+                for (int t = 0; t < tagTypes.size(); t++) {
+                    double chance = TAG_CHANCES[t % TAG_CHANCES.length];
+                    if (random.nextDouble() < chance) {
+                        String tagType = tagTypes.get(t);
+                        tags.add(Map.of(tagType, tagType.toLowerCase() + values.next(random)));
+                    }
+                }
+                // whole seconds, like the dates read from files
+                date.setTimeInMillis((start + (long) (random.nextDouble() * length)) / 1000 * 1000);
+                albumPhotos.add(new Photo(files.get(random.nextInt(files.size())), date, tags));
+            }
+
+            String albumName = "Album " + (a + 1);
+            user.createAlbum(albumName);
+            user.getAlbum(albumName).addPhotos(albumPhotos);
+        }
+        return user;
+    }
+
+    /**
+     * write the placeholder images of a user, each a square of its own random color
+     *
+     * @param directory the folder to write the images to
+     * @param random picks the colors
+     * @return a photo of each image
+     * @throws IOException if an image cannot be written or read
+     */
+    private List<Photo> writePlaceholders(File directory, Random random) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        List<Photo> files = new ArrayList<>(images);
+        BufferedImage image = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[IMAGE_SIZE * IMAGE_SIZE];
+        for (int i = 0; i < images; i++) {
+            Arrays.fill(pixels, random.nextInt(0x1000000));
+            image.setRGB(0, 0, IMAGE_SIZE, IMAGE_SIZE, pixels, 0, IMAGE_SIZE);
+            File file = new File(directory, "placeholder" + i + ".png");
+            ImageIO.write(image, "png", file);
+            // the time of the photo is saved with it, a fixed one keeps the saved library the same on every run
+            file.setLastModified(from.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            files.add(new Photo(file.getAbsolutePath()));
+        }
+        return files;
+    }
+
+    private static int requirePositive(int value, String name) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1");
+        }
+        return value;
+    }
+
+    /**
+     * Picks the ranks 0 to n - 1, rank k with a chance proportional to 1 / (k + 1)^skew.
+     */
+    private static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double skew) {
+            cumulative = new double[n];
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                total += 1 / Math.pow(k + 1, skew);
+                cumulative[k] = total;
+            }
+        }
+
+        int next(Random random) {
+            double target = random.nextDouble() * cumulative[cumulative.length - 1];
+            int index = Arrays.binarySearch(cumulative, target);
+            // not found gives -(insertion point) - 1, the first rank whose total is above the target
+            return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+        }
+    }
+
+    /**
+     * generate users and add them to the library, which is created if there is none. Options:
+     * <ul>
+     *     <li>{@code --users n} the number of users, named gen1 to genN, 1 by default</li>
+     *     <li>{@code --prefix name} the start of the names of the users, gen by default</li>
+     *     <li>{@code --albums n} the albums of each user, 100 by default</li>
+     *     <li>{@code --photos n} the photos of each user, 10000 by default</li>
+     *     <li>{@code --images n} the placeholder images of each user, 256 by default</li>
+     *     <li>{@code --tag-values n} the values of each tag type, 1000 by default</li>
+     *     <li>{@code --skew s} the exponent of the Zipf distributions, 1.0 by default</li>
+     *     <li>{@code --from yyyy-mm-dd} and {@code --to yyyy-mm-dd} the dates of the photos,
+     *     2015-01-01 to 2025-01-01 by default</li>
+     *     <li>{@code --seed n} the seed, 42 by default</li>
+     * </ul>
+     * A library of a million photos needs a heap of a few gigabytes.
+     *
+     * @param args the options
+     * @throws Exception if the library cannot be read or written
+     */
+    public static void main(String[] args) throws Exception {
+        int users = 1;
+        String prefix = "gen";
+        long seed = 42;
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Missing value for " + args[args.length - 1]);
+        }
+
+        for (String option : options.keySet()) {
+            if (!List.of("--users", "--prefix", "--albums", "--photos", "--images", "--tag-values", "--skew", "--from", "--to", "--seed").contains(option)) {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (options.containsKey("--users")) {
+            users = Integer.parseInt(options.get("--users"));
+        }
+        if (options.containsKey("--prefix")) {
+            prefix = options.get("--prefix");
+        }
+        if (options.containsKey("--seed")) {
+            seed = Long.parseLong(options.get("--seed"));
+        }
+
+        LibraryGenerator generator = new LibraryGenerator(seed);
+        if (options.containsKey("--albums")) {
+            generator.setAlbums(Integer.parseInt(options.get("--albums")));
+        }
+        if (options.containsKey("--photos")) {
+            generator.setPhotos(Integer.parseInt(options.get("--photos")));
+        }
+        if (options.containsKey("--images")) {
+            generator.setImages(Integer.parseInt(options.get("--images")));
+        }
+        if (options.containsKey("--tag-values")) {
+            generator.setTagValues(Integer.parseInt(options.get("--tag-values")));
+        }
+        if (options.containsKey("--skew")) {
+            generator.setSkew(Double.parseDouble(options.get("--skew")));
+        }
+        generator.setDates(LocalDate.parse(options.getOrDefault("--from", generator.from.toString())),
+                LocalDate.parse(options.getOrDefault("--to", generator.to.toString())));
+
+        // add to the library that is there, saving only the generated users would drop the others
+        Photos app = Photos.isSaved() ? Photos.readApp() : new Photos();
+        for (int i = 1; i <= users; i++) {
+            String username = prefix + i;
+            for (User user : app.getUsers()) {
+                if (user.getUsername().equals(username)) {
+                    throw new IllegalArgumentException("User " + username + " already exists");
+                }
+            }
+            long start = System.nanoTime();
+            User user = generator.generateUser(username);
+            app.addUser(user);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            LOGGER.info(() -> "Generated " + username + " in " + millis + " ms");
+        }
+        Photos.writeApp(app);
+        LOGGER.info(() -> "Saved the library to " + new File(Photos.storeDir).getAbsolutePath());
+    }
+}
@@ -0,0 +1,209 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the files of a library still exist and are unchanged. Libraries store absolute
+ * paths, so files moved or edited outside the application leave photos pointing at nothing or
+ * at different contents. The scan stats every photo in parallel on a small pool, which bounds
+ * the number of concurrent file system requests, and runs entirely in the background so it
+ * never delays login.
+ * <p>
+ * Photos whose file is gone are flagged as missing. Photos whose size or modification time
+ * changed are refreshed, which recomputes their hashes, and published as changed in every album
+ * that has them, so the views and indexes that follow the {@link ModelEventBus} drop what they
+ * derived from the old contents. Missing photos can be relinked by searching a directory for files
+ * with the same content hash.
+ *
+ * @author ks1686
+ */
+public final class LibraryReconciler {
+
+    // the largest number of files checked at the same time
+    private static final int IO_CONCURRENCY = 8;
+
+    /**
+     * The outcome of a scan.
+     *
+     * @param checked the number of distinct photos checked
+     * @param missing the photos whose file no longer exists
+     * @param changed the photos whose file was modified
+     * @param elapsedMillis how long the scan took
+     */
+    public record Report(int checked, List<Photo> missing, List<Photo> changed, long elapsedMillis) {
+    }
+
+    private LibraryReconciler() {
+    }
+
+    /**
+     * scan every photo of the given users in the background
+     *
+     * @param users the users whose photos should be checked
+     * @return a future completed with the report once every photo was checked
+     */
+    public static CompletableFuture<Report> scan(List<User> users) {
+        // collect the distinct photos up front, a photo in several albums is checked once
+        Map<Photo, Boolean> distinct = new IdentityHashMap<>();
+        for (User user : users) {
+            for (Album album : user.getAlbums()) {
+                for (Photo photo : album.getPhotos()) {
+                    distinct.put(photo, Boolean.TRUE);
+                }
+            }
+        }
+        List<Photo> photos = new ArrayList<>(distinct.keySet());
+
+        long start = System.currentTimeMillis();
+        ExecutorService pool = newPool();
+        List<Photo> missing = Collections.synchronizedList(new ArrayList<>());
+        List<Photo> changed = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> checks = new ArrayList<>();
+        for (Photo photo : photos) {
+            checks.add(CompletableFuture.runAsync(() -> {
+                if (!new File(photo.getFilePath()).isFile()) {
+                    photo.setMissing(true);
+                    missing.add(photo);
+                } else {
+                    photo.setMissing(false);
+                    if (photo.isFileChanged()) {
+                        photo.refresh();
+                        changed.add(photo);
+                    }
+                }
+            }, pool));
+        }
+
+        return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> {
+            pool.shutdown();
+            publishChanged(users, changed);
+            return new Report(photos.size(), List.copyOf(missing), List.copyOf(changed), System.currentTimeMillis() - start);
+        });
+    }
+
+    /**
+     * search a directory tree for the files of missing photos. Only files with the same size as a
+     * missing photo are hashed, so large directories can be searched quickly.
+     *
+     * @param missing the missing photos
+     * @param directory the directory to search
+     * @return a future completed with the new path of every photo that was found
+     */
+    public static CompletableFuture<Map<Photo, String>> findRelinks(List<Photo> missing, File directory) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<Long, List<Photo>> bySize = new HashMap<>();
+            for (Photo photo : missing) {
+                // photos from libraries saved before sizes were recorded cannot be matched
+                if (photo.getFileSize() == 0) {
+                    continue;
+                }
+                bySize.computeIfAbsent(photo.getFileSize(), k -> new ArrayList<>()).add(photo);
+            }
+
+            List<Path> candidates;
+            try (Stream<Path> paths = Files.walk(directory.toPath())) {
+                candidates = paths.filter(Files::isRegularFile)
+                        .filter(path -> bySize.containsKey(path.toFile().length()))
+                        .toList();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            ExecutorService pool = newPool();
+            try {
+                Map<Photo, String> relinks = Collections.synchronizedMap(new IdentityHashMap<>());
+                List<CompletableFuture<Void>> hashes = new ArrayList<>();
+                for (Path candidate : candidates) {
+                    hashes.add(CompletableFuture.runAsync(() -> {
+                        List<Photo> sameSize = bySize.get(candidate.toFile().length());
+                        if (sameSize == null) {
+                            return;
+                        }
+                        String hash;
+                        try {
+                            hash = ContentHasher.hash(candidate.toFile());
+                        } catch (UncheckedIOException e) {
+                            return;
+                        }
+                        for (Photo photo : sameSize) {
+                            if (hash.equals(photo.getContentHash())) {
+                                relinks.putIfAbsent(photo, candidate.toAbsolutePath().toString());
+                            }
+                        }
+                    }, pool));
+                }
+                CompletableFuture.allOf(hashes.toArray(new CompletableFuture<?>[0])).join();
+                return new IdentityHashMap<>(relinks);
+            } finally {
+                pool.shutdown();
+            }
+        });
+    }
+
+    /**
+     * point photos at the files found by findRelinks
+     *
+     * @param users the users whose albums have the photos, told the files changed
+     * @param relinks the new path of each photo
+     */
+    public static void applyRelinks(List<User> users, Map<Photo, String> relinks) {
+        for (Map.Entry<Photo, String> entry : relinks.entrySet()) {
+            entry.getKey().setFilePath(entry.getValue());
+            entry.getKey().setMissing(false);
+        }
+        publishChanged(users, relinks.keySet());
+    }
+
+    /**
+     * publish that the files of the given photos changed, once for every album that has them
+     *
+     * @param users the users whose albums are checked
+     * @param photos the photos whose files changed
+     */
+    private static void publishChanged(List<User> users, Collection<Photo> photos) {
+        if (photos.isEmpty()) {
+            return;
+        }
+        Set<Photo> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        changed.addAll(photos);
+        for (User user : users) {
+            for (Album album : user.getAlbums()) {
+                for (Photo photo : album.getPhotos()) {
+                    if (changed.contains(photo)) {
+                        album.photoChanged(photo);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * create the pool that bounds the number of concurrent file system requests
+     *
+     * @return the pool
+     */
+    private static ExecutorService newPool() {
+        return Executors.newFixedThreadPool(IO_CONCURRENCY, runnable -> {
+            Thread thread = new Thread(runnable, "library-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
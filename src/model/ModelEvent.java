@@ -0,0 +1,136 @@
+package model;
+
+/**
+ * A change to the model, published on the {@link ModelEventBus} by the object that changed after
+ * the change is visible to readers. Events are grouped by what changed, so listeners can
+ * subscribe to all changes to photos, to albums or to users.
+ *
+ * @author ks1686
+ */
+public sealed interface ModelEvent {
+
+    /**
+     * A change to a photo, which may be in several albums.
+     */
+    sealed interface PhotoEvent extends ModelEvent {
+        /**
+         * get the photo that changed
+         *
+         * @return the photo
+         */
+        Photo photo();
+    }
+
+    /**
+     * A change to the photos or the name of an album.
+     */
+    sealed interface AlbumEvent extends ModelEvent {
+        /**
+         * get the album that changed
+         *
+         * @return the album
+         */
+        Album album();
+    }
+
+    /**
+     * A change to the albums of a user.
+     */
+    sealed interface UserEvent extends ModelEvent {
+        /**
+         * get the user that changed
+         *
+         * @return the user
+         */
+        User user();
+    }
+
+    /**
+     * A tag was added to a photo.
+     *
+     * @param photo the photo
+     * @param key the key of the tag
+     * @param value the value of the tag
+     */
+    record TagAdded(Photo photo, String key, String value) implements PhotoEvent {
+    }
+
+    /**
+     * A tag was removed from a photo.
+     *
+     * @param photo the photo
+     * @param key the key of the tag
+     * @param value the value of the tag
+     */
+    record TagRemoved(Photo photo, String key, String value) implements PhotoEvent {
+    }
+
+    /**
+     * The caption of a photo changed.
+     *
+     * @param photo the photo
+     * @param oldCaption the caption before the change
+     * @param newCaption the caption after the change
+     */
+    record CaptionChanged(Photo photo, String oldCaption, String newCaption) implements PhotoEvent {
+    }
+
+    /**
+     * A photo was added to an album.
+     *
+     * @param album the album
+     * @param photo the photo that was added
+     * @param index the position of the photo in the album
+     */
+    record PhotoAdded(Album album, Photo photo, int index) implements AlbumEvent {
+    }
+
+    /**
+     * A photo was removed from an album. When several photos are removed at once, the last one
+     * is reported first, so every index is the position the photo had just before it was
+     * removed.
+     *
+     * @param album the album
+     * @param photo the photo that was removed
+     * @param index the position the photo had in the album
+     */
+    record PhotoRemoved(Album album, Photo photo, int index) implements AlbumEvent {
+    }
+
+    /**
+     * The file of a photo of an album was moved or modified.
+     *
+     * @param album the album
+     * @param photo the photo whose file changed
+     */
+    record PhotoChanged(Album album, Photo photo) implements AlbumEvent {
+    }
+
+    /**
+     * An album was renamed.
+     *
+     * @param album the album
+     * @param oldName the name before the change
+     * @param newName the name after the change
+     */
+    record AlbumRenamed(Album album, String oldName, String newName) implements AlbumEvent {
+    }
+
+    /**
+     * An album was added to a user.
+     *
+     * @param user the user
+     * @param album the new album
+     */
+    record AlbumCreated(User user, Album album) implements UserEvent {
+    }
+
+    /**
+     * An album was deleted from a user.
+     *
+     * @param user the user
+     * @param album the deleted album
+     */
+    record AlbumDeleted(User user, Album album) implements UserEvent {
+    }
+}
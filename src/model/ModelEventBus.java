@@ -0,0 +1,160 @@
+package model;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers {@link ModelEvent}s to the parts of the application that keep state derived from the
+ * model, so views, caches and indexes can update what changed instead of rebuilding.
+ * <p>
+ * A listener subscribes to a type of event and says which executor it runs on, for example
+ * {@code Platform::runLater} for a view or {@code Runnable::run} to run on the thread that
+ * changed the model. Events are delivered in batches: the events published while a delivery is
+ * waiting on the executor are delivered together with it, and the events of one change to the
+ * model, like a batch of photos added to an album, always arrive in one list. Each listener gets
+ * its events in the order they were published, one delivery at a time.
+ * <p>
+ * The model publishes an event while the object that changed is still locked, so the events of
+ * one object are in the order of its changes. A listener that runs on the thread that changed
+ * the model therefore runs with that lock held, and must not wait for another thread.
+ *
+ * @author ks1686
+ */
+public final class ModelEventBus {
+
+    private static final Logger LOGGER = Logger.getLogger(ModelEventBus.class.getName());
+
+    /**
+     * A registration on the bus.
+     */
+    public interface Subscription {
+        /**
+         * stop delivering events, including the events that were published but not delivered yet
+         */
+        void cancel();
+    }
+
+    /**
+     * A listener and the events waiting to be delivered to it.
+     *
+     * @param <E> the type of the events
+     */
+    private static final class Listener<E extends ModelEvent> implements Subscription {
+
+        private final Class<E> type;
+        private final Executor executor;
+        private final Consumer<List<E>> consumer;
+
+        // guarded by this
+        private List<E> pending = new ArrayList<>();
+        private boolean scheduled;
+
+        private volatile boolean cancelled;
+
+        Listener(Class<E> type, Executor executor, Consumer<List<E>> consumer) {
+            this.type = type;
+            this.executor = executor;
+            this.consumer = consumer;
+        }
+
+        /**
+         * queue the events of the listener's type, and schedule a delivery if none is waiting
+         *
+         * @param events the events that were published
+         */
+        void offer(List<? extends ModelEvent> events) {
+            boolean schedule;
+            synchronized (this) {
+                for (ModelEvent event : events) {
+                    if (type.isInstance(event)) {
+                        pending.add(type.cast(event));
+                    }
+                }
+                schedule = !scheduled && !pending.isEmpty();
+                scheduled |= schedule;
+            }
+            if (schedule) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * deliver the waiting events, and the events published while they are delivered
+         */
+        private void deliver() {
+            while (true) {
+                List<E> events;
+                synchronized (this) {
+                    if (pending.isEmpty() || cancelled) {
+                        pending = new ArrayList<>();
+                        scheduled = false;
+                        return;
+                    }
+                    events = pending;
+                    pending = new ArrayList<>();
+                }
+                try {
+                    consumer.accept(events);
+                } catch (RuntimeException e) {
+                    // one failing listener must not stop the others, or its own later events
+                    LOGGER.log(Level.WARNING, "Model event listener failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            LISTENERS.remove(this);
+        }
+    }
+
+    private static final List<Listener<?>> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private ModelEventBus() {
+    }
+
+    /**
+     * subscribe to a type of event
+     *
+     * @param type the type of the events, {@link ModelEvent} for all of them
+     * @param executor runs the deliveries
+     * @param listener called with the events published since the last delivery, in order
+     * @param <E> the type of the events
+     * @return the subscription, to cancel it
+     */
+    public static <E extends ModelEvent> Subscription subscribe(Class<E> type, Executor executor, Consumer<List<E>> listener) {
+        Listener<E> subscription = new Listener<>(type, executor, listener);
+        LISTENERS.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * publish an event
+     *
+     * @param event the event
+     */
+    static void publish(ModelEvent event) {
+        publish(List.of(event));
+    }
+
+    /**
+     * publish the events of one change together, so every listener gets them in one delivery
+     *
+     * @param events the events, in the order they happened
+     */
+    static void publish(List<? extends ModelEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        for (Listener<?> listener : LISTENERS) {
+            listener.offer(events);
+        }
+    }
+}
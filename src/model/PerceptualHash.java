@@ -0,0 +1,115 @@
+package model;
+
+// Java imports
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Computes perceptual hashes of photos. The hash is a 64 bit difference hash (dHash): the image
+ * is shrunk to 9x8 grey pixels and each bit records whether a pixel is darker than its right
+ * neighbour. Resized or re-encoded copies of an image have hashes that differ in only a few
+ * bits, so the hamming distance between two hashes measures how similar the images look.
+ * The image is decoded with source subsampling, so even large photos are never decoded at
+ * full resolution.
+ *
+ * @author ks1686
+ */
+public final class PerceptualHash {
+
+    /**
+     * the largest hamming distance at which two photos are considered near duplicates
+     */
+    public static final int NEAR_DUPLICATE_DISTANCE = 10;
+
+    // the smallest side of the subsampled decode
+    private static final int DECODE_SIZE = 64;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * compute the difference hash of the given file
+     *
+     * @param file the image file to hash
+     * @return the hash, or null if the file cannot be decoded
+     */
+    public static Long dHash(File file) {
+        BufferedImage image;
+        try {
+            image = readSubsampled(file);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        if (image == null) {
+            return null;
+        }
+
+        // shrink to 9x8 grey pixels, one more column than bits per row
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = small.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, 9, 8, null);
+        graphics.dispose();
+
+        Raster raster = small.getRaster();
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash <<= 1;
+                if (raster.getSample(x, y, 0) < raster.getSample(x + 1, y, 0)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * get the hamming distance between two hashes
+     *
+     * @param a the first hash
+     * @param b the second hash
+     * @return the number of bits that differ
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * decode the first frame of an image, subsampled so its smallest side is about DECODE_SIZE
+     *
+     * @param file the image file
+     * @return the decoded image, or null if no reader supports the file
+     * @throws IOException if the file cannot be read
+     */
+    private static BufferedImage readSubsampled(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / DECODE_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -5,8 +5,12 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
 import java.io.Serializable;
 import java.io.File;
+import java.io.UncheckedIOException;
 
 /**
  * Represents a photo. A photo has a file path, a caption, a date, and a list of tags.
@@ -17,6 +21,12 @@ import java.io.File;
  * A photo can be created with just a file path. A photo can be created with a file path and a caption.
  * A photo can be created with a file path and a list of tags. A photo can have a tag added to it.
  * A photo can have its caption set. A photo can have a tag removed based on its key and value.
+ * <p>
+ * Photos can be read on any thread while they are edited. The tags are copy-on-write: every
+ * change publishes a new immutable list, so {@link #getTags} returns a snapshot. The other fields
+ * are volatile, and the hashes and dimensions worked out on first use may be worked out twice
+ * by two threads, with the same result. Changes to the caption and tags are published on the
+ * {@link ModelEventBus}.
  *
  * @author jacobjude
  * @author ks1686
@@ -24,26 +34,47 @@ import java.io.File;
 
 public class Photo implements Serializable {
 
-    private String filepath;
-    private String caption;
+    // the implicit UID of the photos saved before the hashes and dimensions were stored, so
+    // those libraries still read and the new fields are worked out on first use
+    @Serial
+    private static final long serialVersionUID = -8030321115634247248L;
+
+    private volatile String filepath;
+    private volatile String caption;
     private Calendar date;
-    private List<Map<String, String>> tags;
+    // immutable, replaced as a whole on every change
+    private volatile List<Map<String, String>> tags;
+    private volatile String contentHash;
+    private volatile Long perceptualHash;
+    private volatile long fileSize;
+    private volatile long lastModified;
+    private volatile ImageProbe.Format format;
+    private volatile int width;
+    private volatile int height;
+
+    // set by the library reconciliation scan, not saved
+    private transient volatile boolean missing;
+
+    // set once the file header was read, so dimensions that stay unknown are not read again on every call
+    private transient volatile boolean probed;
 
     /**
      * Creates a photo with a file path, a caption, and a list of tags.
      * The file path must be a valid file path to a BMP, GIF, JPEG, or PNG file.
+     * The format is detected from the magic bytes of the file, and the width and height are read from its header.
      * The caption must not be null. The tags must not be null.
-     * The date of the photo is set to the last modified date of the file.
-     * The date is set to the last modified date of the file.
-     * The milliseconds, seconds, hour, and minute are set to 0.
+     * The date of the photo is set to the capture date stored in the EXIF metadata of the file.
+     * If the file has no EXIF capture date, the date is set to the last modified date of the file.
+     * The milliseconds are set to 0.
      *
      * @param filepath the file path of the photo
      * @param caption the caption of the photo
      * @param tags the tags of the photo
      * @throws NullPointerException if the caption is null
      * @throws IllegalArgumentException if the file path is empty
-     * @throws IllegalArgumentException if the file path does not end with .bmp, .gif, .jpeg, or .png
+     * @throws IllegalArgumentException if the file is not a BMP, GIF, JPEG, or PNG image
      * @throws IllegalArgumentException if the file does not exist
+     * @throws UncheckedIOException if the file cannot be read
      */
     public Photo(String filepath, String caption, List<Map<String, String>> tags) throws NullPointerException, IllegalArgumentException {
         File file = new File(filepath);
@@ -56,7 +87,9 @@ public class Photo implements Serializable {
             throw new IllegalArgumentException("filepath cannot be empty");
         }
 
-        if (!(filepath.endsWith(".bmp") || filepath.endsWith(".gif") || filepath.endsWith(".jpeg") || filepath.endsWith(".png") || filepath.endsWith(".jpg"))) {
+        // detect the format from the file contents, not the file name
+        ImageProbe.Info info = ImageProbe.probe(file);
+        if (info == null) {
             throw new IllegalArgumentException("File must be a BMP, GIF, JPEG, or PNG file");
         }
 
@@ -65,19 +98,28 @@ public class Photo implements Serializable {
         }
 
         if (tags == null) {
-            this.tags = new ArrayList<>();
+            this.tags = List.of();
         } else {
-            this.tags = tags;
+            this.tags = List.copyOf(tags);
         }
 
-        this.date = Calendar.getInstance(); // get the current date and time
-        this.date.setTimeInMillis(file.lastModified()); // set the date and time to the last modified date of the file
-        // set milliseconds and seconds and hour and minute to 0
+        // prefer the capture date from the EXIF metadata, it survives copying the file
+        this.date = ExifReader.readCaptureDate(file);
+        if (this.date == null) {
+            this.date = Calendar.getInstance(); // get the current date and time
+            this.date.setTimeInMillis(file.lastModified()); // set the date and time to the last modified date of the file
+        }
         this.date.set(Calendar.MILLISECOND, 0);
-        this.date.set(Calendar.SECOND, 0);
-        this.date.set(Calendar.HOUR, 0);
-        this.date.set(Calendar.MINUTE, 0);
+        // a calendar works out its time lazily on the first read, do it now so reads on any thread only read
+        this.date.getTimeInMillis();
 
+        // hash the file contents so duplicates can be detected no matter where the file lives
+        this.contentHash = ContentHasher.hash(file);
+        this.fileSize = file.length();
+        this.lastModified = file.lastModified();
+        this.format = info.format();
+        this.width = info.width();
+        this.height = info.height();
 
         this.filepath = filepath;
         this.caption = caption;
@@ -101,16 +143,29 @@ public class Photo implements Serializable {
         this(filepath, caption, new ArrayList<>());
     }
 
+    /**
+     * check if a file is an image in a supported format, judging by its contents
+     *
+     * @param file the file to check
+     * @return true if the file is a BMP, GIF, JPEG, or PNG image
+     */
+    static boolean isSupportedFile(File file) {
+        return ImageProbe.probe(file) != null;
+    }
+
     /**
      * delete a tag from the photo based on the key
      *
      * @param key the key of the tag to be deleted
      * @param value the value of the tag to be deleted
      */
-    public void deleteTag(String key, String value) {
+    public synchronized void deleteTag(String key, String value) {
         for (int i = 0; i < tags.size(); i++) {
             if (tags.get(i).containsKey(key) && tags.get(i).containsValue(value)) {
-                tags.remove(i);
+                List<Map<String, String>> next = new ArrayList<>(tags);
+                next.remove(i);
+                tags = List.copyOf(next);
+                ModelEventBus.publish(new ModelEvent.TagRemoved(this, key, value));
                 break;
             }
         }
@@ -126,6 +181,45 @@ public class Photo implements Serializable {
         this(filepath, "", tags);
     }
 
+    /**
+     * create a photo of the same file as another photo, with its own date and tags. The file is
+     * not read again, so a generated library can hold many photos of a few files
+     *
+     * @param file a photo of the file
+     * @param date the date of the photo
+     * @param tags the tags of the photo
+     */
+    Photo(Photo file, Calendar date, List<Map<String, String>> tags) {
+        this.filepath = file.filepath;
+        this.caption = "";
+        this.date = (Calendar) date.clone();
+        this.date.getTimeInMillis();
+        this.tags = List.copyOf(tags);
+        this.contentHash = file.contentHash;
+        this.perceptualHash = file.perceptualHash;
+        this.fileSize = file.fileSize;
+        this.lastModified = file.lastModified;
+        this.format = file.format;
+        this.width = file.width;
+        this.height = file.height;
+    }
+
+    /**
+     * read a photo, making the tags of a photo saved before they were copy-on-write immutable
+     *
+     * @param in the stream to read from
+     * @throws IOException if the photo cannot be read
+     * @throws ClassNotFoundException if a class of the photo is not found
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        tags = List.copyOf(tags);
+        if (date != null) {
+            date.getTimeInMillis();
+        }
+    }
+
     /**
      * get the file path of the photo
      *
@@ -135,6 +229,76 @@ public class Photo implements Serializable {
         return filepath;
     }
 
+    /**
+     * set the file path of the photo after its file was moved or renamed
+     *
+     * @param filepath the new file path of the photo
+     */
+    void setFilePath(String filepath) {
+        this.filepath = filepath;
+        // the header of the new file may say what the old one did not
+        this.probed = false;
+    }
+
+    /**
+     * check if the file of the photo changed size or modification time since it was last read
+     *
+     * @return true if the file changed
+     */
+    boolean isFileChanged() {
+        File file = new File(filepath);
+        return file.length() != fileSize || file.lastModified() != lastModified;
+    }
+
+    /**
+     * get the size of the file when the photo was last read
+     *
+     * @return the size of the file in bytes, or 0 if it was never recorded
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * get the modification time of the file when the photo was last read
+     *
+     * @return the modification time in milliseconds, or 0 if it was never recorded
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * check if the last library scan found the file of the photo missing
+     *
+     * @return true if the file is missing
+     */
+    public boolean isMissing() {
+        return missing;
+    }
+
+    /**
+     * flag the file of the photo as missing or present
+     *
+     * @param missing true if the file is missing
+     */
+    void setMissing(boolean missing) {
+        this.missing = missing;
+    }
+
+    /**
+     * recompute the hashes of the photo after its file was modified
+     */
+    void refresh() {
+        File file = new File(filepath);
+        this.fileSize = file.length();
+        this.lastModified = file.lastModified();
+        this.contentHash = null;
+        this.perceptualHash = null;
+        getContentHash();
+        probe();
+    }
+
     /**
      * get the caption of the photo
      *
@@ -150,11 +314,13 @@ public class Photo implements Serializable {
      * @param caption the caption of the photo
      * @throws NullPointerException if the caption is null
      */
-    public void setCaption(String caption) throws NullPointerException {
+    public synchronized void setCaption(String caption) throws NullPointerException {
         if (caption == null) {
             throw new NullPointerException("caption cannot be null");
         }
+        String oldCaption = this.caption;
         this.caption = caption;
+        ModelEventBus.publish(new ModelEvent.CaptionChanged(this, oldCaption, caption));
     }
 
     /**
@@ -166,10 +332,89 @@ public class Photo implements Serializable {
         return date;
     }
 
+    /**
+     * get the content hash of the photo. Photos read from libraries saved before hashes were
+     * stored are hashed the first time this is called.
+     *
+     * @return the hex encoded SHA-256 of the file, or null if the file can no longer be read
+     */
+    public String getContentHash() {
+        if (contentHash == null) {
+            try {
+                contentHash = ContentHasher.hash(new File(filepath));
+            } catch (UncheckedIOException e) {
+                return null;
+            }
+        }
+        return contentHash;
+    }
+
+    /**
+     * get the perceptual hash of the photo. The hash is computed from a small decode of the file
+     * the first time this is called and stored with the photo afterwards.
+     *
+     * @return the difference hash of the image, or null if the file cannot be decoded
+     */
+    public Long getPerceptualHash() {
+        if (perceptualHash == null) {
+            perceptualHash = PerceptualHash.dHash(new File(filepath));
+        }
+        return perceptualHash;
+    }
+
+    /**
+     * get the format of the photo, detected from the file contents
+     *
+     * @return the format of the photo, or null if the file can no longer be read
+     */
+    public ImageProbe.Format getFormat() {
+        if (format == null && !probed) {
+            probe();
+        }
+        return format;
+    }
+
+    /**
+     * get the width of the photo, read from the file header without decoding the image
+     *
+     * @return the width in pixels, or 0 if it is unknown
+     */
+    public int getWidth() {
+        if (width == 0 && !probed) {
+            probe();
+        }
+        return width;
+    }
+
+    /**
+     * get the height of the photo, read from the file header without decoding the image
+     *
+     * @return the height in pixels, or 0 if it is unknown
+     */
+    public int getHeight() {
+        if (height == 0 && !probed) {
+            probe();
+        }
+        return height;
+    }
+
+    /**
+     * read the format and dimensions of photos from libraries saved before they were stored
+     */
+    private void probe() {
+        probed = true;
+        ImageProbe.Info info = ImageProbe.probe(new File(filepath));
+        if (info != null) {
+            format = info.format();
+            width = info.width();
+            height = info.height();
+        }
+    }
+
     /**
      * get the tags of the photo
-        *
-     * @return the tags of the photo
+     *
+     * @return an immutable snapshot of the tags of the photo
      */
     public List<Map<String, String>> getTags() {
         return tags;
@@ -185,7 +430,7 @@ public class Photo implements Serializable {
      * @throws NullPointerException if the value is null
      * @throws IllegalArgumentException if the value is empty
      */
-    public void addTag(String key, String value) throws NullPointerException {
+    public synchronized void addTag(String key, String value) throws NullPointerException {
         if (key == null) {
             throw new NullPointerException("key cannot be null");
         } else if (key.isEmpty()) {
@@ -199,7 +444,10 @@ public class Photo implements Serializable {
         }
 
         Map<String, String> tag = Map.of(key, value);
-        tags.add(tag);
+        List<Map<String, String>> next = new ArrayList<>(tags);
+        next.add(tag);
+        tags = List.copyOf(next);
+        ModelEventBus.publish(new ModelEvent.TagAdded(this, key, value));
     }
 
     /**
@@ -0,0 +1,206 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports photo files in bulk. Loading a photo reads its EXIF capture date and computes its
+ * content and perceptual hashes, so the files of a batch are loaded in parallel on a small
+ * worker pool. Adding the loaded photos to an album is done separately, on the caller's thread,
+ * and checks every photo against a {@link DuplicateIndex} so the same image is never imported
+ * twice.
+ *
+ * @author ks1686
+ */
+public final class PhotoImporter {
+
+    // worker pool shared by all imports, daemon threads so it never keeps the application alive
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "photo-import");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private PhotoImporter() {
+    }
+
+    /**
+     * load the given files in parallel
+     *
+     * @param files the files to load
+     * @return a future completed with the loaded batch once every file has been processed
+     */
+    public static CompletableFuture<Batch> load(List<File> files) {
+        List<CompletableFuture<Photo>> futures = new ArrayList<>();
+        for (File file : files) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                Photo photo = new Photo(file.getAbsolutePath());
+                // compute the perceptual hash while the file is still in the OS cache
+                photo.getPerceptualHash();
+                return photo;
+            }, WORKERS));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> {
+            Batch batch = new Batch();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    batch.photos.add(futures.get(i).join());
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    batch.failed.add(files.get(i).getName() + ": " + cause.getMessage());
+                }
+            }
+            return batch;
+        });
+    }
+
+    /**
+     * build an index of the photos of the given users on the worker pool. Photos of libraries
+     * saved before content hashes were kept are hashed while the index is built, which reads
+     * their files, so the index is not built on the caller's thread
+     *
+     * @param users the users to index
+     * @return a future completed with the index
+     */
+    public static CompletableFuture<DuplicateIndex> index(List<User> users) {
+        return CompletableFuture.supplyAsync(() -> DuplicateIndex.of(users), WORKERS);
+    }
+
+    /**
+     * A batch of loaded photos that has not been added to an album yet.
+     */
+    public static class Batch {
+        private final List<Photo> photos = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+
+        /**
+         * get the photos that were loaded
+         *
+         * @return the loaded photos
+         */
+        public List<Photo> getPhotos() {
+            return Collections.unmodifiableList(photos);
+        }
+
+        /**
+         * add the photos of the batch to an album. A photo whose content is already in the index
+         * is not added again: if the existing photo is in another album it is added to this album
+         * instead, keeping its caption and tags, otherwise it is skipped.
+         *
+         * @param album the album to add the photos to
+         * @param index the index of the photos already in the library, updated with the new photos
+         * @return the result of the import
+         */
+        public ImportResult addTo(Album album, DuplicateIndex index) {
+            ImportResult result = new ImportResult(failed);
+            Set<Photo> inAlbum = Collections.newSetFromMap(new IdentityHashMap<>());
+            inAlbum.addAll(album.getPhotos());
+            for (Photo photo : photos) {
+                Photo existing = index.find(photo.getContentHash());
+                if (existing == null) {
+                    index.add(photo);
+                    inAlbum.add(photo);
+                    result.added.add(photo);
+                } else if (inAlbum.contains(existing)) {
+                    result.skipped.add(photo);
+                } else {
+                    inAlbum.add(existing);
+                    result.added.add(existing);
+                    result.reused.add(existing);
+                }
+            }
+            // the album publishes its new list of photos once for the whole batch
+            album.addPhotos(result.added);
+            return result;
+        }
+    }
+
+    /**
+     * The outcome of adding a batch to an album.
+     */
+    public static class ImportResult {
+        private final List<Photo> added = new ArrayList<>();
+        private final List<Photo> reused = new ArrayList<>();
+        private final List<Photo> skipped = new ArrayList<>();
+        private final List<String> failed;
+
+        private ImportResult(List<String> failed) {
+            this.failed = failed;
+        }
+
+        /**
+         * get the photos that were added to the album, including reused ones
+         *
+         * @return the added photos
+         */
+        public List<Photo> getAdded() {
+            return Collections.unmodifiableList(added);
+        }
+
+        /**
+         * get the existing photos that were added to the album instead of a duplicate file
+         *
+         * @return the reused photos
+         */
+        public List<Photo> getReused() {
+            return Collections.unmodifiableList(reused);
+        }
+
+        /**
+         * get the loaded photos that were skipped because the album already has their content
+         *
+         * @return the skipped photos
+         */
+        public List<Photo> getSkipped() {
+            return Collections.unmodifiableList(skipped);
+        }
+
+        /**
+         * get the files that could not be loaded
+         *
+         * @return a message for each file that failed
+         */
+        public List<String> getFailed() {
+            return Collections.unmodifiableList(failed);
+        }
+
+        /**
+         * check if anything other than a plain add happened
+         *
+         * @return true if photos were reused, skipped or failed
+         */
+        public boolean hasNotices() {
+            return !reused.isEmpty() || !skipped.isEmpty() || !failed.isEmpty();
+        }
+
+        /**
+         * toString method for the import result
+         *
+         * @return a summary of the import
+         */
+        public String toString() {
+            String result = (added.size() - reused.size()) + " photo(s) imported.\n";
+            if (!reused.isEmpty()) {
+                result += reused.size() + " photo(s) were already in another album and were linked instead of copied.\n";
+            }
+            for (Photo photo : skipped) {
+                result += "Skipped duplicate: " + photo.getFilePath() + "\n";
+            }
+            for (String failure : failed) {
+                result += "Failed: " + failure + "\n";
+            }
+            return result;
+        }
+    }
+}
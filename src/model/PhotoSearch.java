@@ -0,0 +1,77 @@
+package model;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * A search of all albums of a user that runs in the background, for searching while the user
+ * types. The search holds the snapshots of the photo lists of the albums taken when it was
+ * created, so the albums can change while it runs. The photos are searched a chunk at a time:
+ * the search can be stopped between chunks once the query is out of date, and the photos found
+ * in each chunk are handed over as soon as the chunk is done, in the same order
+ * {@link User#searchAlbums} returns them.
+ *
+ * @author ks1686
+ */
+public class PhotoSearch {
+
+    // small enough that a stale search stops within a millisecond or so
+    private static final int CHUNK_SIZE = 2048;
+
+    private final String query;
+    private final List<List<Photo>> albums = new ArrayList<>();
+
+    private PhotoSearch(String query) {
+        this.query = query;
+    }
+
+    /**
+     * create a search of the user's albums as they are now
+     *
+     * @param user the user whose albums to search
+     * @param query the query, in the format {@link Album#search} takes
+     * @return the search, which can be run on any thread
+     */
+    public static PhotoSearch of(User user, String query) {
+        PhotoSearch search = new PhotoSearch(query);
+        for (Album album : user.getAlbums()) {
+            search.albums.add(album.getPhotos());
+        }
+        return search;
+    }
+
+    /**
+     * get the query
+     *
+     * @return the query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * run the search
+     *
+     * @param cancelled checked before every chunk, the search stops once it returns true
+     * @param found called with the photos found in each chunk that has any
+     * @return true if the search went through every photo, false if it was cancelled
+     * @throws IllegalArgumentException if the query is invalid
+     */
+    public boolean run(BooleanSupplier cancelled, Consumer<List<Photo>> found) {
+        for (List<Photo> photos : albums) {
+            for (int start = 0; start < photos.size(); start += CHUNK_SIZE) {
+                if (cancelled.getAsBoolean()) {
+                    return false;
+                }
+                List<Photo> matches = Album.search(query, photos.subList(start, Math.min(photos.size(), start + CHUNK_SIZE)));
+                if (!matches.isEmpty()) {
+                    found.accept(matches);
+                }
+            }
+        }
+        return !cancelled.getAsBoolean();
+    }
+}
@@ -2,24 +2,43 @@ package model;
 
 // Java imports
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // JavaFX imports
 import javafx.application.Application;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
+import javafx.application.Platform;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.stage.DirectoryChooser;
+import javafx.scene.control.TextArea;
 
 // Project imports
+import controller.ImageCache;
 import controller.LoginController;
+import controller.ThumbnailService;
+import controller.ViewRegistry;
 
 /**
  *  Represents the application. The application has a list of users. The application can be created with a list of users.
  *  The application can have users added to it. The application can have users retrieved from it.
- *  The application can be saved to a file and read from a file.
+ *  The application can be saved to files and read from them, each user in their own file.
  *  The application can create a stock user with stock photos.
  *  The application can start the application.
  *  The application can create an error alert.
@@ -32,28 +51,88 @@ import controller.LoginController;
  */
 public class Photos extends Application implements Serializable {
 
-    public static final String storeDir = "data";
+    // the benchmarks save their libraries elsewhere with -Dphotos.storeDir, so the real one is not overwritten
+    public static final String storeDir = System.getProperty("photos.storeDir", "data");
+    // the whole library, as it was saved before each user had their own file
     public static final String storeFile = "data.dat";
+    // the names of the users, each user is saved to data/users/<username>/user.dat
+    public static final String usersFile = "users.dat";
+    public static final String userFile = "user.dat";
     @Serial
     private static final long serialVersionUID = 1L;
 
-    private List<User> userList;
+    // logs how long startup takes
+    private static final Logger LOGGER = Logger.getLogger(Photos.class.getName());
+
+    // immutable, replaced as a whole on every change so any thread can read it without locking
+    private volatile List<User> userList = List.of();
+
+    // the users whose files could not be read, kept in the list of users so saving does not drop them
+    private transient volatile List<String> unreadableUsers = List.of();
 
     /**
      * gets the list of users
      *
-     * @return the list of users
+     * @return an immutable snapshot of the list of users
      */
     public List<User> getUsers() {
         return userList;
     }
 
+    /**
+     * gets the names of the users listed in the library whose files could not be read. They are
+     * not in {@link #getUsers}, but stay listed when the library is saved and their files are not
+     * written, so they are back once their files are repaired
+     *
+     * @return the names of the users that could not be read
+     */
+    public List<String> getUnreadableUsers() {
+        // null for a library read from the single file of older versions
+        return unreadableUsers == null ? List.of() : unreadableUsers;
+    }
+
+    /**
+     * adds a user
+     *
+     * @param user the user to add
+     */
+    public synchronized void addUser(User user) {
+        List<User> next = new ArrayList<>(userList);
+        next.add(user);
+        userList = List.copyOf(next);
+    }
+
+    /**
+     * removes a user, unless they are logged in
+     *
+     * @param user the user to remove
+     * @return true if the user was removed, false if they have an open session
+     */
+    public boolean removeUser(User user) {
+        ReentrantLock lock = Session.lockOf(user.getUsername());
+        lock.lock();
+        try {
+            if (Session.of(user.getUsername()) != null) {
+                return false;
+            }
+            synchronized (this) {
+                List<User> next = new ArrayList<>(userList);
+                if (next.remove(user)) {
+                    userList = List.copyOf(next);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * create stock user with stock photos
      *
      * @param app the Photos object
      */
-    private void createStockUser(Photos app) {
+    private static void createStockUser(Photos app) {
         // get all the files in data/users/stock/photos/
         File stockPhotos = new File("data/users/stock/photos");
         File[] photos = stockPhotos.listFiles();
@@ -64,74 +143,320 @@ public class Photos extends Application implements Serializable {
         for (File photo : photos) {
             stockUser.getAlbum("stock").addPhoto(photo.getAbsolutePath());
         }
-        app.userList.add(stockUser);
+        app.addUser(stockUser);
     }
 
     /**
-     * start the application
+     * start the application. A splash is shown right away, while the users are read on a
+     * background thread and the login screen and the screens login leads to are loaded on
+     * another. The login screen replaces the splash as soon as it is loaded, and login is enabled
+     * as soon as the users are read
      *
      * @param primaryStage the stage
-     * @throws Exception if there is an exception
      */
     @Override
-    public void start(Stage primaryStage) throws Exception {
-        Photos app;
-        try {
-            app = Photos.readApp();
-        } catch (Exception e) {
-            // if there's no data.dat file made, create a new PhotoApp and create stock user
-            app = new Photos();
-            app.userList = new ArrayList<>();
-            createStockUser(app);
-        }
-        
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/login.fxml"));
-        Parent root = loader.load();
-        LoginController controller = loader.getController();
-        controller.setApp(app);
+    public void start(Stage primaryStage) {
+        CompletableFuture<Photos> library = CompletableFuture.supplyAsync(Photos::loadLibrary);
 
+        // the splash has no controls, so the stylesheet of the default theme is parsed by the view loader instead
+        Text title = new Text("Photo Album");
+        title.setFont(new Font(48));
+        VBox splash = new VBox(20, title, new Text("Loading..."));
+        splash.setAlignment(Pos.CENTER);
+        Scene splashScene = new Scene(splash, 800, 600);
+        splashScene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                splashScene.removePostLayoutPulseListener(this);
+                LOGGER.info(() -> "First frame after " + uptime() + " ms");
+            }
+        });
         primaryStage.setTitle("Photo Album");
-        primaryStage.setScene(new Scene(root, 800, 600));
-        final Photos finalApp = app; // doesn't work without this for some reason
+        primaryStage.setScene(splashScene);
+        primaryStage.show();
+
+        // the login screen first, then the screens login leads to
+        ViewRegistry.prewarm(ViewRegistry.View.LOGIN).thenRun(() -> Platform.runLater(() -> showLogin(primaryStage, library)));
+        ViewRegistry.prewarm(ViewRegistry.View.HOMEPAGE, ViewRegistry.View.ADMIN_HOMEPAGE);
 
         // if user presses the X button, save the state of the app (this will save all Users, Albums, Photo objects)
         primaryStage.setOnCloseRequest(event -> {
-
+            Photos app = library.isCompletedExceptionally() ? null : library.getNow(null);
+            if (app == null) {
+                // the users were never read, there is nothing to save, and a library that failed to read must not be overwritten
+                return;
+            }
             try {
-                Photos.writeApp(finalApp);
+                Photos.writeApp(app);
             } catch (IOException e) {
-                errorAlert("Error writing to file", "", "Error writing to file /data/data.dat");
+                errorAlert("Error writing to file", "", "Error writing to the files in /data");
             }
         });
-        
-        primaryStage.show();
-        
     }
 
     /**
-     * writes the app to a file
+     * read the users, or create the stock user if the library was never saved. Used by the
+     * application and by the headless server. A library that is saved but cannot be read is
+     * reported instead of replaced, so it is not overwritten when the app is saved
+     *
+     * @return the app with its users
+     * @throws UncheckedIOException if the library is saved but cannot be read
+     */
+    public static Photos loadLibrary() throws UncheckedIOException {
+        long start = System.nanoTime();
+        Photos app;
+        if (!isSaved()) {
+            // if the library was never saved, create a new PhotoApp and create stock user
+            app = new Photos();
+            createStockUser(app);
+        } else {
+            try {
+                app = Photos.readApp();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read the library in " + storeDir + ": " + e, e);
+            } catch (ClassNotFoundException e) {
+                throw new UncheckedIOException("Failed to read the library in " + storeDir + ": " + e, new IOException(e));
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        LOGGER.info(() -> "Read the users in " + millis + " ms");
+        return app;
+    }
+
+    /**
+     * replace the splash with the login screen, and enable login once the users are read
+     *
+     * @param stage the window of the splash
+     * @param library the users being read
+     */
+    private void showLogin(Stage stage, CompletableFuture<Photos> library) {
+        LoginController controller;
+        try {
+            controller = ViewRegistry.show(stage, ViewRegistry.View.LOGIN);
+        } catch (IOException e) {
+            errorAlert("Startup", "Failed to load login screen", e.getMessage());
+            Platform.exit();
+            return;
+        }
+        LOGGER.info(() -> "Login screen shown after " + uptime() + " ms");
+        if (!library.isDone()) {
+            controller.setLoading();
+        }
+
+        library.whenComplete((app, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                // the library is left as it is, nothing is saved on the way out
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                errorAlert("Startup", "Failed to load users", cause.getMessage());
+                Platform.exit();
+                return;
+            }
+            controller.setApp(app);
+            LOGGER.info(() -> "Interactive after " + uptime() + " ms");
+            if (!app.getUnreadableUsers().isEmpty()) {
+                errorAlert("Startup", "Some users could not be read", "The files of " + String.join(", ", app.getUnreadableUsers())
+                        + " could not be read. They are kept as they are and cannot log in until the files are repaired.");
+            }
+
+            // check the library for moved or edited files in the background, login does not wait for it
+            LibraryReconciler.scan(app.getUsers()).thenAccept(report -> {
+                // edited files must be decoded again
+                for (Photo photo : report.changed()) {
+                    ImageCache.invalidate(photo);
+                }
+                if (!report.missing().isEmpty()) {
+                    Platform.runLater(() -> offerRelink(app.getUsers(), report.missing()));
+                }
+            });
+        }));
+    }
+
+    /**
+     * get how long the application has been running, the startup timings count from the start
+     * of the JVM since that is when the user launched it
+     *
+     * @return the time since the JVM started, in milliseconds
+     */
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    /**
+     * offer to search a folder for the files of photos that could not be found
+     * @param users: the users whose albums have the photos
+     * @param missing: the photos whose file is missing
+     */
+    private static void offerRelink(List<User> users, List<Photo> missing) {
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("Missing Photos");
+        alert.setHeaderText(missing.size() + " photo(s) could not be found");
+        alert.setContentText("Their files were moved or deleted. Search a folder for them?");
+        Optional<ButtonType> result = alert.showAndWait();
+        if (result.isEmpty() || result.get() != ButtonType.OK) {
+            return;
+        }
+
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Search Folder for Missing Photos");
+        File directory = directoryChooser.showDialog(null);
+        if (directory == null) {
+            return;
+        }
+
+        LibraryReconciler.findRelinks(missing, directory).whenComplete((relinks, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                errorAlert("Missing Photos", "Failed to search folder", error.getMessage());
+                return;
+            }
+            // free the images of the old paths, the galleries follow the change events of the relinked photos
+            for (Photo photo : relinks.keySet()) {
+                ImageCache.invalidate(photo);
+            }
+            LibraryReconciler.applyRelinks(users, relinks);
+            infoAlert("Missing Photos", "Relinked " + relinks.size() + " of " + missing.size() + " photo(s)",
+                    "Photos are matched to files by their contents.");
+        }));
+    }
+
+    /**
+     * checks if the library was ever saved, in either the files of each user or the single file of older versions
+     * @return true if there is a saved library to read
+     */
+    public static boolean isSaved() {
+        return new File(storeDir, usersFile).exists() || new File(storeDir, storeFile).exists();
+    }
+
+    /**
+     * writes the app to files, the list of users and each user in their own file. Each user is
+     * written while holding only their lock, so the users that are not being written can be
+     * saved by their sessions at the same time
      * @param app: the app to write
-     * @throws IOException: if there is an error writing the file
+     * @throws IOException: if there is an error writing a file
      */
     public static void writeApp(Photos app) throws IOException {
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(storeDir + File.separator + storeFile));
-        oos.writeObject(app);
-        oos.close();
+        writeUsers(app);
+        for (User user : app.getUsers()) {
+            writeUser(user);
+        }
+    }
+
+    /**
+     * writes the list of users to a file, the users themselves are not written
+     * @param app: the app whose users to list
+     * @throws IOException: if there is an error writing the file
+     */
+    public static synchronized void writeUsers(Photos app) throws IOException {
+        List<String> usernames = new ArrayList<>();
+        for (User user : app.getUsers()) {
+            usernames.add(user.getUsername());
+        }
+        for (String username : app.getUnreadableUsers()) {
+            if (!usernames.contains(username)) {
+                usernames.add(username);
+            }
+        }
+        writeFile(new File(storeDir, usersFile), usernames.toArray(new String[0]));
+    }
+
+    /**
+     * writes a user to their own file
+     * @param user: the user to write
+     * @throws IOException: if there is an error writing the file
+     */
+    public static void writeUser(User user) throws IOException {
+        ReentrantLock lock = Session.lockOf(user.getUsername());
+        lock.lock();
+        try {
+            writeFile(userFileOf(user.getUsername()), user);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * reads the app from a file
+     * reads the app from its files. A library saved before each user had their own file is read
+     * from the single file it was saved to, and is saved to the new files the next time it is written
      * @return the app
-     * @throws IOException: if there is an error reading the file
+     * @throws IOException: if there is an error reading a file
      * @throws ClassNotFoundException: if the class is not found
      */
     public static Photos readApp() throws IOException, ClassNotFoundException {
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(storeDir + File.separator + storeFile));
-        Photos app = (Photos) ois.readObject();
-        ois.close();
+        File index = new File(storeDir, usersFile);
+        if (!index.exists()) {
+            return (Photos) readFile(new File(storeDir, storeFile));
+        }
+
+        List<User> users = new ArrayList<>();
+        List<String> unreadable = new ArrayList<>();
+        for (String username : (String[]) readFile(index)) {
+            File file = userFileOf(username);
+            if (!file.exists()) {
+                // a user created by the admin is listed before they are saved for the first time
+                users.add(new User(username));
+                continue;
+            }
+            // one damaged file must not take the other users with it
+            try {
+                users.add((User) readFile(file));
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                LOGGER.log(Level.SEVERE, "Failed to read user " + username + " from " + file, e);
+                unreadable.add(username);
+            }
+        }
+        Photos app = new Photos();
+        app.userList = List.copyOf(users);
+        app.unreadableUsers = List.copyOf(unreadable);
         return app;
     }
 
+    /**
+     * gets the directory of a user in the library, which holds their file, their thumbnails and
+     * the photos generated for them
+     * @param username: the name of the user
+     * @return the directory
+     */
+    public static File userDirOf(String username) {
+        return new File(storeDir + File.separator + "users" + File.separator + username);
+    }
+
+    /**
+     * gets the file a user is saved to
+     * @param username: the name of the user
+     * @return the file
+     */
+    private static File userFileOf(String username) {
+        return new File(userDirOf(username), userFile);
+    }
+
+    /**
+     * writes an object to a file, replacing the file only once the object is written in full so
+     * a failed write leaves the last saved version
+     * @param file: the file to write
+     * @param object: the object to write
+     * @throws IOException: if there is an error writing the file
+     */
+    private static void writeFile(File file, Object object) throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            oos.writeObject(object);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * reads an object from a file
+     * @param file: the file to read
+     * @return the object
+     * @throws IOException: if there is an error reading the file
+     * @throws ClassNotFoundException: if the class is not found
+     */
+    private static Object readFile(File file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return ois.readObject();
+        }
+    }
+
 
     /**
      * launches the application
@@ -172,29 +497,50 @@ public class Photos extends Application implements Serializable {
     }
 
     /**
-     * log out of the application
-     * @param app: the app to log out of
+     * creates an information alert for a report that may be too long for a plain alert
+     * @param title: the title of the alert
+     * @param header: the header of the alert
+     * @param report: the text of the report, shown in a scrollable text area
      */
-    public void logout(Photos app) {
-        // save the app
+    public static void reportAlert(String title, String header, String report) {
+        // create an alert
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle(title);
+        alert.setHeaderText(header);
+        TextArea textArea = new TextArea(report);
+        textArea.setEditable(false);
+        textArea.setWrapText(true);
+        alert.getDialogPane().setContent(textArea);
+        alert.setResizable(true);
+        alert.showAndWait();
+    }
+
+    /**
+     * log out of the application, saving only what the session worked on
+     * @param session: the session to close
+     */
+    public void logout(Session session) {
+        if (!session.isAdmin()) {
+            // stop watching the folders of the user that logged out, other sessions keep theirs
+            FolderSync.stopAll(session.getUser());
+            ThumbnailService.closeStore(session.getUser());
+            SimilarityIndex.release(session.getUser());
+        }
+
+        // save the user, or the list of users for the admin
         try {
-            Photos.writeApp(app);
+            session.close();
         } catch (Exception e) {
             // show an alert that there was an error writing to the file
-            errorAlert("Error writing to file", "", "Error writing to file /data/data.dat");
+            errorAlert("Error writing to file", "", "Error saving " + session.getUsername());
         }
 
-        // load the logincontroller.fxml file
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/login.fxml"));
+        // show the login screen in a new window, the caller closes the old one
         try {
-            Parent root = loader.load();
-            LoginController controller = loader.getController();
-            controller.setApp(this);
             Stage stage = new Stage();
             stage.setTitle("Photo Album");
-            stage.setScene(new Scene(root, 800, 600));
-            stage.show();
-
+            LoginController controller = ViewRegistry.show(stage, ViewRegistry.View.LOGIN);
+            controller.setApp(this);
         } catch (IOException e) {
             // show an error alert that the login screen could not be returned to
             errorAlert("Logout", "Failed to return to login screen", "Failed to return to login screen");
@@ -211,7 +557,7 @@ public class Photos extends Application implements Serializable {
             Photos.writeApp(this);
         } catch (Exception e) {
             // show an alert that there was an error writing to the file
-            errorAlert("Error writing to file", "", "Error writing to file /data/data.dat");
+            errorAlert("Error writing to file", "", "Error writing to the files in /data");
         }
         System.exit(0);
     }
@@ -0,0 +1,116 @@
+package model;
+
+// Java imports
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes rectangular regions of an image file without decoding the rest of it. Each region can
+ * be subsampled while it is read, so a region covering the whole of a very large image can be
+ * decoded at screen resolution, and a small region can be decoded at full resolution, with only
+ * the pixels of the result held in memory. The decoder keeps its reader open between regions;
+ * readers are not thread-safe, so regions are decoded one at a time.
+ *
+ * @author ks1686
+ */
+public class RegionDecoder implements AutoCloseable {
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+    private RegionDecoder(ImageInputStream input, ImageReader reader) throws IOException {
+        this.input = input;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+    }
+
+    /**
+     * open a decoder for the given file
+     *
+     * @param file the image file
+     * @return the decoder
+     * @throws IOException if the file cannot be read or no reader supports its format
+     */
+    public static RegionDecoder open(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + file);
+        }
+        ImageReader reader = readers.next();
+        // every region is read from the start of the image again, so the stream must stay seekable.
+        // metadata is never used, so the reader may skip it
+        reader.setInput(input, false, true);
+        try {
+            return new RegionDecoder(input, reader);
+        } catch (IOException e) {
+            reader.dispose();
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * get the width of the image
+     *
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * get the height of the image
+     *
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * decode a region of the image
+     *
+     * @param region the region to decode, in pixels of the full image. It is clipped to the image
+     * @param subsampling keep every nth pixel in both directions, 1 for full resolution
+     * @return the decoded region, about region size / subsampling pixels wide and high
+     * @throws IOException if the region cannot be decoded
+     */
+    public synchronized BufferedImage decode(Rectangle region, int subsampling) throws IOException {
+        Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty()) {
+            throw new IllegalArgumentException("Region is outside the image: " + region);
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(clipped);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    /**
+     * close the file
+     */
+    @Override
+    public synchronized void close() {
+        reader.dispose();
+        try {
+            input.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+}
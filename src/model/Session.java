@@ -0,0 +1,174 @@
+package model;
+
+// Java imports
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A user, or the admin, working on the library from login to logout. Several sessions can be
+ * open in one process at the same time, one for each user and one for the admin.
+ * <p>
+ * Each user has a lock that is held while their session is opened, while they are saved and
+ * while they are removed, so the admin cannot remove a user that is logged in and a user cannot
+ * log in while they are being removed. The locks are per user, so sessions of different users
+ * never wait for each other. Changes to albums and photos do not take the lock, the model is
+ * safe to change and read from several threads on its own.
+ * <p>
+ * Closing a session saves what it works on, only that user's file for a user and only the list
+ * of users for the admin, so saving one user does not wait for the others.
+ *
+ * @author ks1686
+ */
+public final class Session {
+
+    /**
+     * the name the admin logs in with, it cannot be the name of a user
+     */
+    public static final String ADMIN = "admin";
+
+    // one lock per username, created on first use and kept, there are only as many as users
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    // the open sessions by username
+    private static final Map<String, Session> OPEN = new ConcurrentHashMap<>();
+
+    private final Photos app;
+    private final User user;
+
+    private Session(Photos app, User user) {
+        this.app = app;
+        this.user = user;
+    }
+
+    /**
+     * open a session for a user
+     *
+     * @param app the library
+     * @param username the name of the user, or {@link #ADMIN}
+     * @return the session, or null if there is no user with the name
+     * @throws IllegalStateException if the user already has an open session
+     */
+    public static Session open(Photos app, String username) throws IllegalStateException {
+        ReentrantLock lock = lockOf(username);
+        lock.lock();
+        try {
+            if (OPEN.containsKey(username)) {
+                throw new IllegalStateException(username + " is already logged in");
+            }
+            Session session;
+            if (username.equals(ADMIN)) {
+                session = new Session(app, null);
+            } else {
+                User user = find(app, username);
+                if (user == null) {
+                    return null;
+                }
+                session = new Session(app, user);
+            }
+            OPEN.put(username, session);
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get the open session of a user
+     *
+     * @param username the name of the user, or {@link #ADMIN}
+     * @return the session, or null if the user is not logged in
+     */
+    public static Session of(String username) {
+        return OPEN.get(username);
+    }
+
+    /**
+     * get the lock of a user
+     *
+     * @param username the name of the user
+     * @return the lock, the same one every time for the same name
+     */
+    static ReentrantLock lockOf(String username) {
+        return LOCKS.computeIfAbsent(username, name -> new ReentrantLock());
+    }
+
+    /**
+     * find a user of the library by name
+     */
+    private static User find(Photos app, String username) {
+        for (User user : app.getUsers()) {
+            if (user.getUsername().equals(username)) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * get the library the session works on
+     *
+     * @return the library
+     */
+    public Photos getApp() {
+        return app;
+    }
+
+    /**
+     * get the user of the session
+     *
+     * @return the user, or null for the admin
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * check if this is the admin's session
+     *
+     * @return true for the admin
+     */
+    public boolean isAdmin() {
+        return user == null;
+    }
+
+    /**
+     * get the name the session was opened with
+     *
+     * @return the name of the user, or {@link #ADMIN}
+     */
+    public String getUsername() {
+        return isAdmin() ? ADMIN : user.getUsername();
+    }
+
+    /**
+     * save what the session works on: the user, or for the admin the list of users
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        if (isAdmin()) {
+            Photos.writeUsers(app);
+        } else {
+            Photos.writeUser(user);
+        }
+    }
+
+    /**
+     * close the session and save what it worked on
+     *
+     * @throws IOException if the file cannot be written, the session is closed anyway
+     */
+    public void close() throws IOException {
+        // held over both, so the user cannot log in again or be removed before they are saved
+        ReentrantLock lock = lockOf(getUsername());
+        lock.lock();
+        try {
+            OPEN.remove(getUsername(), this);
+            save();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
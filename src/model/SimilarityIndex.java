@@ -0,0 +1,329 @@
+package model;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Index of the perceptual hashes of a user's photos, used to find photos that look alike even
+ * when they are resized or re-encoded copies. The hashes are stored in a {@link BKTree}, so
+ * finding the photos similar to one photo does not compare it against the whole library.
+ * <p>
+ * {@link #forUser} keeps one index per logged in user. It is built once in the background and
+ * then follows the user's albums on the {@link ModelEventBus}, so only the photos that were
+ * added or whose files changed are hashed again. A photo that is removed stays in the tree but
+ * is skipped, and the tree is rebuilt from the live photos once they are outnumbered.
+ *
+ * @author ks1686
+ */
+public class SimilarityIndex {
+
+    // one thread builds and updates every index, hashing decodes photos so it never runs on the FX thread
+    private static final ExecutorService UPDATER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "similarity-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the kept indexes, by user
+    private static final Map<User, Kept> KEPT = new ConcurrentHashMap<>();
+
+    /**
+     * An index kept for a user and its subscription to the changes of the user's albums.
+     */
+    private record Kept(CompletableFuture<SimilarityIndex> index, ModelEventBus.Subscription subscription) {
+    }
+
+    /**
+     * A photo in the tree with the hash it was added with.
+     */
+    private record Entry(Photo photo, long hash) {
+    }
+
+    // guarded by this
+    private BKTree<Entry> tree = new BKTree<>();
+    private final Map<Photo, Entry> live = new LinkedHashMap<>();
+    private int dead;
+
+    // the photos of each album as they were last indexed, only used by the kept indexes
+    private final Map<Album, List<Photo>> indexed = new IdentityHashMap<>();
+    private final Map<Photo, Integer> counts = new IdentityHashMap<>();
+
+    /**
+     * create an index over all photos of the given user. Photos that have not been hashed yet are
+     * decoded, so this should not be called on the FX thread.
+     *
+     * @param user the user to index
+     * @return the index
+     */
+    public static SimilarityIndex of(User user) {
+        SimilarityIndex index = new SimilarityIndex();
+        for (Album album : user.getAlbums()) {
+            for (Photo photo : album.getPhotos()) {
+                index.add(photo);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * get the index kept for a user, building it in the background the first time. The index
+     * follows the changes to the user's albums until it is released
+     *
+     * @param user the user
+     * @return a future completed with the index, or completed exceptionally if it cannot be built
+     */
+    public static CompletableFuture<SimilarityIndex> forUser(User user) {
+        return KEPT.computeIfAbsent(user, key -> {
+            SimilarityIndex index = new SimilarityIndex();
+            // subscribe before building, the changes made meanwhile are applied after the build on the same thread
+            ModelEventBus.Subscription subscription = ModelEventBus.subscribe(ModelEvent.class, UPDATER, events -> index.update(user, events));
+            CompletableFuture<SimilarityIndex> built = CompletableFuture.supplyAsync(() -> {
+                index.update(user, List.of());
+                return index;
+            }, UPDATER);
+            Kept kept = new Kept(built, subscription);
+            // an index that failed to build is built again the next time it is asked for
+            built.whenComplete((result, error) -> {
+                if (error != null && KEPT.remove(user, kept)) {
+                    subscription.cancel();
+                }
+            });
+            return kept;
+        }).index();
+    }
+
+    /**
+     * stop keeping the index of a user, when they log out
+     *
+     * @param user the user
+     */
+    public static void release(User user) {
+        Kept kept = KEPT.remove(user);
+        if (kept != null) {
+            kept.subscription().cancel();
+            kept.index().cancel(false);
+        }
+    }
+
+    /**
+     * add a photo to the index, a photo that is already indexed is not added again
+     *
+     * @param photo the photo to add
+     */
+    public synchronized void add(Photo photo) {
+        if (live.containsKey(photo)) {
+            return;
+        }
+        Long hash = photo.getPerceptualHash();
+        if (hash != null) {
+            Entry entry = new Entry(photo, hash);
+            tree.add(hash, entry);
+            live.put(photo, entry);
+        }
+    }
+
+    /**
+     * remove a photo from the index
+     *
+     * @param photo the photo to remove
+     */
+    private synchronized void remove(Photo photo) {
+        if (live.remove(photo) != null) {
+            dead++;
+        }
+        // searching a tree that is mostly removed photos costs more than building it again
+        if (dead > live.size()) {
+            tree = new BKTree<>();
+            for (Entry entry : live.values()) {
+                tree.add(entry.hash(), entry);
+            }
+            dead = 0;
+        }
+    }
+
+    /**
+     * bring the index up to date with the user's albums. Only the albums the events are about are
+     * compared with what was indexed, and all of them when albums were created or deleted
+     *
+     * @param user the user the index is kept for
+     * @param events the changes since the last update, none to index every album
+     */
+    private void update(User user, List<ModelEvent> events) {
+        List<Album> albums = user.getAlbums();
+        Map<Album, Boolean> changed = new IdentityHashMap<>();
+        List<Photo> modified = new ArrayList<>();
+        boolean all = events.isEmpty();
+        for (ModelEvent event : events) {
+            switch (event) {
+                case ModelEvent.UserEvent userEvent -> all |= userEvent.user() == user;
+                case ModelEvent.PhotoChanged photoChanged -> {
+                    changed.put(photoChanged.album(), Boolean.TRUE);
+                    modified.add(photoChanged.photo());
+                }
+                case ModelEvent.AlbumEvent albumEvent -> changed.put(albumEvent.album(), Boolean.TRUE);
+                case ModelEvent.PhotoEvent photoEvent -> {
+                    // tags and captions do not change how a photo looks
+                }
+            }
+        }
+
+        Map<Album, List<Photo>> current = new IdentityHashMap<>();
+        for (Album album : albums) {
+            if (all || changed.containsKey(album)) {
+                current.put(album, album.getPhotos());
+            }
+        }
+        // hash the new photos before locking, so the searches do not wait for the decoding
+        for (List<Photo> photos : current.values()) {
+            for (Photo photo : photos) {
+                photo.getPerceptualHash();
+            }
+        }
+        synchronized (this) {
+            // a photo whose file changed is hashed again, in every album it is in
+            for (Photo photo : modified) {
+                if (counts.containsKey(photo)) {
+                    remove(photo);
+                    add(photo);
+                }
+            }
+            if (all) {
+                for (Album album : new ArrayList<>(indexed.keySet())) {
+                    if (!current.containsKey(album)) {
+                        reindex(album, List.of());
+                    }
+                }
+            }
+            for (Map.Entry<Album, List<Photo>> album : current.entrySet()) {
+                reindex(album.getKey(), album.getValue());
+            }
+        }
+    }
+
+    /**
+     * replace the photos indexed for an album with its current photos. A photo stays in the
+     * index while any album of the user has it
+     *
+     * @param album the album
+     * @param photos the photos the album has now
+     */
+    private synchronized void reindex(Album album, List<Photo> photos) {
+        List<Photo> before = indexed.getOrDefault(album, List.of());
+        if (before == photos) {
+            return;
+        }
+        // the lists are immutable snapshots, so the same list means the album did not change
+        for (Photo photo : photos) {
+            if (counts.merge(photo, 1, Integer::sum) == 1) {
+                add(photo);
+            }
+        }
+        for (Photo photo : before) {
+            if (counts.merge(photo, -1, Integer::sum) == 0) {
+                counts.remove(photo);
+                remove(photo);
+            }
+        }
+        if (photos.isEmpty()) {
+            indexed.remove(album);
+        } else {
+            indexed.put(album, photos);
+        }
+    }
+
+    /**
+     * find the photos that look like the given photo, most similar first
+     *
+     * @param photo the photo to compare against
+     * @param maxDistance the largest hamming distance to include
+     * @return the similar photos, not including the photo itself
+     */
+    public List<Photo> findSimilar(Photo photo, int maxDistance) {
+        List<Photo> result = new ArrayList<>();
+        // hashed before locking, so a photo that was never hashed does not hold up the updates
+        Long hash = photo.getPerceptualHash();
+        if (hash == null) {
+            return result;
+        }
+        List<BKTree.Match<Entry>> matches;
+        synchronized (this) {
+            matches = tree.search(hash, maxDistance);
+            matches.removeIf(match -> live.get(match.value().photo()) != match.value());
+        }
+        matches.sort(Comparator.comparingInt(BKTree.Match::distance));
+        for (BKTree.Match<Entry> match : matches) {
+            if (match.value().photo() != photo) {
+                result.add(match.value().photo());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * group the indexed photos into clusters of near duplicates. Two photos end up in the same
+     * group if a chain of photos, each within the distance of the next, connects them.
+     *
+     * @param maxDistance the largest hamming distance between neighbours in a group
+     * @return every group with at least two photos
+     */
+    public synchronized List<List<Photo>> getNearDuplicateGroups(int maxDistance) {
+        // union-find over the positions of the photos in the list
+        List<Entry> entries = new ArrayList<>(live.values());
+        Map<Photo, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            positions.put(entries.get(i).photo(), i);
+        }
+        int[] parent = new int[entries.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            for (BKTree.Match<Entry> match : tree.search(entries.get(i).hash(), maxDistance)) {
+                if (live.get(match.value().photo()) != match.value()) {
+                    continue;
+                }
+                int a = find(parent, i);
+                int b = find(parent, positions.get(match.value().photo()));
+                if (a != b) {
+                    parent[b] = a;
+                }
+            }
+        }
+
+        Map<Integer, List<Photo>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            groups.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(entries.get(i).photo());
+        }
+        List<List<Photo>> result = new ArrayList<>();
+        for (List<Photo> group : groups.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * find the root of a union-find set, compressing the path on the way
+     *
+     * @param parent the parent of each element
+     * @param i the element
+     * @return the root of the element's set
+     */
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
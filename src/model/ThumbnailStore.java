@@ -0,0 +1,335 @@
+package model;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of encoded thumbnails, stored in a single packed file in a user's data
+ * directory. The file is append-only: each record holds a key and the encoded thumbnail bytes.
+ * An index from key to offset is kept in memory and rebuilt by walking the record headers when
+ * the store is opened; reads go through a memory mapping of the file, so a cache hit costs no
+ * system call.
+ * <p>
+ * The store is bounded by the total size of its live entries. When the bound is exceeded the
+ * least recently used entries are dropped from the index, and once the dead records take up as
+ * much space as the live ones the file is rewritten with only the live entries on a background
+ * thread. Every method is thread-safe.
+ *
+ * @author ks1686
+ */
+public class ThumbnailStore {
+
+    /**
+     * the name of the pack file in the user's data directory
+     */
+    public static final String PACK_FILE = "thumbnails.pack";
+
+    // marks the start of every record, used to detect a torn write at the end of the file
+    private static final int RECORD_MAGIC = 0x54484D42;
+
+    // magic, key length, data length
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+
+    /**
+     * The location of a thumbnail in the pack file.
+     *
+     * @param offset the offset of the thumbnail bytes
+     * @param length the number of thumbnail bytes
+     */
+    private record Entry(long offset, int length) {
+    }
+
+    private final Path packPath;
+    private final long maxBytes;
+
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long liveBytes;
+    private boolean compacting;
+
+    // set once the store is closed, a compaction that was waiting then leaves the file alone
+    private boolean closed;
+
+    private ThumbnailStore(Path packPath, long maxBytes) {
+        this.packPath = packPath;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * open the store in the given directory, creating it if it does not exist
+     *
+     * @param directory the user's data directory
+     * @param maxBytes the largest total size of the cached thumbnails
+     * @return the store
+     * @throws IOException if the pack file cannot be opened
+     */
+    public static ThumbnailStore open(File directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory.toPath());
+        ThumbnailStore store = new ThumbnailStore(directory.toPath().resolve(PACK_FILE), maxBytes);
+        store.channel = FileChannel.open(store.packPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        store.scan();
+        return store;
+    }
+
+    /**
+     * get the cache key of a file, built from its path, modification time and size so an edited
+     * or replaced file never hits the thumbnail of its old contents
+     *
+     * @param file the image file
+     * @return the cache key
+     */
+    public static String keyOf(File file) {
+        return file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length();
+    }
+
+    /**
+     * get a cached thumbnail
+     *
+     * @param key the cache key of the thumbnail
+     * @return the encoded thumbnail, or null if it is not cached
+     */
+    public synchronized byte[] get(String key) {
+        if (closed) {
+            return null;
+        }
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            if (mapped == null || entry.offset() + entry.length() > mapped.capacity()) {
+                // the file grew since it was mapped
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            byte[] data = new byte[entry.length()];
+            mapped.get((int) entry.offset(), data);
+            return data;
+        } catch (IOException e) {
+            index.remove(key);
+            liveBytes -= entry.length();
+            return null;
+        }
+    }
+
+    /**
+     * check if a thumbnail is cached, without reading it or marking it as used
+     *
+     * @param key the cache key of the thumbnail
+     * @return true if the thumbnail is cached
+     */
+    public synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * add a thumbnail to the cache
+     *
+     * @param key the cache key of the thumbnail
+     * @param data the encoded thumbnail
+     */
+    public synchronized void put(String key, byte[] data) {
+        if (closed) {
+            return;
+        }
+        try {
+            long offset = append(channel, key, data);
+            Entry old = index.put(key, new Entry(offset, data.length));
+            if (old != null) {
+                liveBytes -= old.length();
+            }
+            liveBytes += data.length;
+        } catch (IOException e) {
+            // the cache is an optimisation, a failed write only costs a decode next time
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * get the number of cached thumbnails
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * get the total size of the cached thumbnails
+     *
+     * @return the size of the live entries in bytes
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * close the pack file
+     */
+    public synchronized void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+        mapped = null;
+        index.clear();
+    }
+
+    /**
+     * drop least recently used entries until the store is within its bound, and start a
+     * compaction if the file holds as much dead data as live data
+     */
+    private void evict() {
+        if (closed) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = index.entrySet().iterator();
+        while (liveBytes > maxBytes && eldest.hasNext()) {
+            liveBytes -= eldest.next().getValue().length();
+            eldest.remove();
+        }
+
+        try {
+            if (!compacting && channel.size() > 2 * Math.max(liveBytes, maxBytes / 2)) {
+                compacting = true;
+                Thread compactor = new Thread(this::compact, "thumbnail-compact");
+                compactor.setDaemon(true);
+                compactor.start();
+            }
+        } catch (IOException e) {
+            // try again on the next put
+        }
+    }
+
+    /**
+     * rewrite the pack file with only the live entries, least recently used first so the order
+     * survives a restart
+     */
+    private synchronized void compact() {
+        if (closed) {
+            // the index is gone, a rewrite now would replace the pack with an empty one
+            compacting = false;
+            return;
+        }
+        Path temp = packPath.resolveSibling(PACK_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            List<Map.Entry<String, Entry>> live = new ArrayList<>(index.entrySet());
+            LinkedHashMap<String, Entry> compacted = new LinkedHashMap<>(16, 0.75f, true);
+            for (Map.Entry<String, Entry> entry : live) {
+                ByteBuffer buffer = ExifReader.readAt(channel, entry.getValue().offset(), entry.getValue().length());
+                if (buffer == null) {
+                    continue;
+                }
+                byte[] data = buffer.array();
+                long offset = append(out, entry.getKey(), data);
+                compacted.put(entry.getKey(), new Entry(offset, data.length));
+            }
+            out.force(false);
+
+            channel.close();
+            Files.move(temp, packPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(packPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            mapped = null;
+            index.clear();
+            index.putAll(compacted);
+            liveBytes = 0;
+            for (Entry entry : compacted.values()) {
+                liveBytes += entry.length();
+            }
+        } catch (IOException e) {
+            // keep using whatever file is open, the dead records only waste space
+            if (closed) {
+                return;
+            }
+            try {
+                if (!channel.isOpen()) {
+                    channel = FileChannel.open(packPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    index.clear();
+                    liveBytes = 0;
+                    mapped = null;
+                    scan();
+                }
+            } catch (IOException reopen) {
+                // the store stays empty until the next login
+            }
+        } finally {
+            compacting = false;
+        }
+    }
+
+    /**
+     * rebuild the index by walking the record headers, dropping a torn record at the end
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private void scan() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int magic = header.getInt();
+            int keyLength = header.getShort() & 0xFFFF;
+            int dataLength = header.getInt();
+            long dataOffset = position + HEADER_SIZE + keyLength;
+            if (magic != RECORD_MAGIC || dataLength < 0 || dataOffset + dataLength > size) {
+                break;
+            }
+
+            ByteBuffer key = ByteBuffer.allocate(keyLength);
+            channel.read(key, position + HEADER_SIZE);
+            Entry old = index.put(new String(key.array(), StandardCharsets.UTF_8), new Entry(dataOffset, dataLength));
+            if (old != null) {
+                liveBytes -= old.length();
+            }
+            liveBytes += dataLength;
+            position = dataOffset + dataLength;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        evict();
+    }
+
+    /**
+     * append a record to the end of a pack file
+     *
+     * @param out the pack file
+     * @param key the cache key
+     * @param data the encoded thumbnail
+     * @return the offset of the thumbnail bytes in the file
+     * @throws IOException if the record cannot be written
+     */
+    private static long append(FileChannel out, String key, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + data.length);
+        record.putInt(RECORD_MAGIC).putShort((short) keyBytes.length).putInt(data.length).put(keyBytes).put(data);
+        record.flip();
+
+        long position = out.size();
+        while (record.hasRemaining()) {
+            position += out.write(record, position);
+        }
+        return position - data.length;
+    }
+}
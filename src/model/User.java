@@ -1,6 +1,10 @@
 package model;
 
 // Java imports
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -10,13 +14,24 @@ import java.util.List;
  * created with a username. A user can have albums added to it, deleted from it,
  * and retrieved from it. A user can be searched for photos based on tags. A
  * user can have its username changed.
+ * <p>
+ * The albums and tag types are copy-on-write: every change publishes a new immutable list, so
+ * {@link #getAlbums} and {@link #getTagTypes} return snapshots that any thread can read without
+ * locking. Changes are serialized by the user's lock. Albums created and deleted are published
+ * on the {@link ModelEventBus}.
  *
  * @author jacobjude
  */
 public class User implements Serializable {
+
+    // the implicit UID of the users saved before the fields were volatile, so those libraries still read
+    @Serial
+    private static final long serialVersionUID = 4078090440266210512L;
+
     private String username;
-    private List<Album> albums; // ArrayList of albums
-    private List<String> tagTypes;
+    // immutable, replaced as a whole on every change
+    private volatile List<Album> albums;
+    private volatile List<String> tagTypes;
 
     /**
      * Creates a user with the given username.
@@ -33,22 +48,53 @@ public class User implements Serializable {
         } 
             
         this.username = username;
-        this.albums = new ArrayList<>(); // Initialize the ArrayList
-        this.tagTypes = new ArrayList<>();
+        this.albums = List.of();
         // add some default tags like location, person, etc.
-        this.tagTypes.add("Location");
-        this.tagTypes.add("Person");
-        this.tagTypes.add("Object");
+        this.tagTypes = List.of("Location", "Person", "Object");
     }
 
     /**
      * get the tag types
-     * @return the tag types
+     * @return an immutable snapshot of the tag types
      */
     public List<String> getTagTypes() {
         return this.tagTypes;
     }
 
+    /**
+     * add a tag type
+     * @param tagType: the tag type to add
+     */
+    public synchronized void addTagType(String tagType) {
+        List<String> next = new ArrayList<>(tagTypes);
+        next.add(tagType);
+        tagTypes = List.copyOf(next);
+    }
+
+    /**
+     * remove a tag type
+     * @param tagType: the tag type to remove
+     */
+    public synchronized void removeTagType(String tagType) {
+        List<String> next = new ArrayList<>(tagTypes);
+        if (next.remove(tagType)) {
+            tagTypes = List.copyOf(next);
+        }
+    }
+
+    /**
+     * read a user, making the lists of a user saved before they were copy-on-write immutable
+     * @param in: the stream to read from
+     * @throws IOException: if the user cannot be read
+     * @throws ClassNotFoundException: if a class of the user is not found
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        albums = List.copyOf(albums);
+        tagTypes = List.copyOf(tagTypes);
+    }
+
     /**
      * get the username of the user
      * @return the username of the user
@@ -59,7 +105,7 @@ public class User implements Serializable {
 
     /**
      * get the albums of the user
-     * @return the albums of the user
+     * @return an immutable snapshot of the albums of the user
      */
     public List<Album> getAlbums() {
         return albums;
@@ -74,7 +120,7 @@ public class User implements Serializable {
     public List<Photo> searchAlbums(String query) throws IllegalArgumentException {
         try {
             List<Photo> photos = new ArrayList<>();
-            for (Album album : albums) {
+            for (Album album : getAlbums()) {
                 List<Photo> queryPhotos = album.search(query);
                 photos.addAll(queryPhotos);
             }
@@ -92,13 +138,52 @@ public class User implements Serializable {
     public void createAlbum(String albumName) {
         Album album = new Album(albumName);
 
-        for (Album a : albums) {
+        for (Album a : getAlbums()) {
             if (a.getAlbumName().equals(albumName)) {
                 Photos.errorAlert("An album with this name already exists", "", "Please choose a different name and try again.");
             }
         }
 
-        albums.add(album);
+        addAlbum(album);
+    }
+
+    /**
+     * create a new album bound to the given directory
+     * @param albumName: the name of the album to create
+     * @param directory: the directory the album is bound to
+     * @return the new album, or null if the user already has an album with the name
+     */
+    public synchronized FolderAlbum createFolderAlbum(String albumName, File directory) {
+        // checked under the lock, so two albums with the same name are never bound to the directory
+        if (getAlbum(albumName) != null) {
+            return null;
+        }
+        FolderAlbum album = new FolderAlbum(albumName, directory);
+        addAlbum(album);
+        return album;
+    }
+
+    /**
+     * add an album to the user, the alert above is shown without holding the lock
+     * @param album: the album to add
+     */
+    private synchronized void addAlbum(Album album) {
+        List<Album> next = new ArrayList<>(albums);
+        next.add(album);
+        albums = List.copyOf(next);
+        ModelEventBus.publish(new ModelEvent.AlbumCreated(this, album));
+    }
+
+    /**
+     * delete an album of the user
+     * @param album: the album to delete
+     */
+    public synchronized void deleteAlbum(Album album) {
+        List<Album> next = new ArrayList<>(albums);
+        if (next.remove(album)) {
+            albums = List.copyOf(next);
+            ModelEventBus.publish(new ModelEvent.AlbumDeleted(this, album));
+        }
     }
 
     /**
@@ -107,7 +192,7 @@ public class User implements Serializable {
      * @return the album with the given name
      */
     public Album getAlbum(String albumName) {
-        for (Album album : albums) {
+        for (Album album : getAlbums()) {
             if (album.getAlbumName().equals(albumName)) {
                 return album; // Return the album
             }
@@ -121,7 +206,7 @@ public class User implements Serializable {
      */
     public String toString() {
         String result = "";
-        for (Album album : albums) {
+        for (Album album : getAlbums()) {
             result += album.toString() + "\n";
         }
 
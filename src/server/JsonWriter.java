@@ -0,0 +1,186 @@
+package server;
+
+// Java imports
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes JSON to a stream as it is produced, so a response is sent while it is built instead of
+ * being held in memory as a whole. The writer only puts in the commas and colons, the caller is
+ * responsible for opening and closing every object and array it starts.
+ *
+ * @author ks1686
+ */
+final class JsonWriter {
+
+    private final Writer out;
+
+    // one entry for each open object or array, true until its first member is written
+    private final Deque<Boolean> first = new ArrayDeque<>();
+
+    // a name was just written, so the next value belongs to it
+    private boolean afterName;
+
+    /**
+     * create a writer
+     *
+     * @param out where the JSON is written, buffered by the caller
+     */
+    JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * start an object
+     *
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        first.push(true);
+        return this;
+    }
+
+    /**
+     * end the innermost object
+     *
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter endObject() throws IOException {
+        first.pop();
+        out.write('}');
+        return this;
+    }
+
+    /**
+     * start an array
+     *
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        first.push(true);
+        return this;
+    }
+
+    /**
+     * end the innermost array
+     *
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter endArray() throws IOException {
+        first.pop();
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * write the name of the next member of the innermost object
+     *
+     * @param name the name
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter name(String name) throws IOException {
+        beforeValue();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * write a string, or null
+     *
+     * @param value the string
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            out.write("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    /**
+     * write a number
+     *
+     * @param value the number
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * write a boolean
+     *
+     * @param value the boolean
+     * @return this writer
+     * @throws IOException if the JSON cannot be written
+     */
+    JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * write the comma before a member that is not the first one of its object or array
+     */
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!first.isEmpty()) {
+            if (first.peek()) {
+                first.pop();
+                first.push(false);
+            } else {
+                out.write(',');
+            }
+        }
+    }
+
+    /**
+     * write a string with the characters JSON does not allow in strings escaped
+     */
+    private void string(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            out.write(value, start, i - start);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> out.write(String.format("\\u%04x", (int) c));
+            }
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,638 @@
+package server;
+
+// Java imports
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Project imports
+import model.Album;
+import model.Photo;
+import model.Photos;
+import model.User;
+
+/**
+ * A headless HTTP server over a photo library, for automation that queries and tags photos
+ * without the JavaFX UI. It loads the library the application uses and serves it on the loopback
+ * interface. Start it with
+ * {@code java server.PhotoServer [port]}, the port is 8080 by default.
+ * <p>
+ * The API is JSON:
+ * <ul>
+ *     <li>{@code GET /api/users} lists the users</li>
+ *     <li>{@code GET /api/users/{user}/albums} lists the albums of a user</li>
+ *     <li>{@code GET /api/users/{user}/albums/{album}/photos} lists the photos of an album</li>
+ *     <li>{@code GET /api/users/{user}/search?q={query}} searches the albums of a user, the query
+ *     is in the format {@link Album#search} takes</li>
+ *     <li>{@code POST /api/users/{user}/albums/{album}/photos/{index}/tags?key={key}&value={value}}
+ *     adds a tag to a photo, the parameters may also be sent as a form</li>
+ *     <li>{@code DELETE /api/users/{user}/albums/{album}/photos/{index}/tags?key={key}&value={value}}
+ *     removes a tag from a photo</li>
+ * </ul>
+ * Lists are paginated with the {@code offset} and {@code limit} parameters. Photos are addressed
+ * by their position in the album, which every listing and search result includes.
+ * <p>
+ * Every request runs on its own virtual thread, so thousands of requests can wait on slow
+ * clients at once. Requests do not lock the library: they read the immutable snapshots the model
+ * publishes, and tagging goes through the model's own synchronized methods. A request that
+ * changes a user saves only that user's file with {@link Photos#writeUser}, under the same
+ * per-user lock the sessions of the application save with. Responses are written as they are
+ * built, so a large page is not held in memory.
+ *
+ * @author ks1686
+ */
+public final class PhotoServer {
+
+    private static final Logger LOGGER = Logger.getLogger(PhotoServer.class.getName());
+
+    private static final int DEFAULT_PORT = 8080;
+
+    // connections the operating system queues while every accepted one is being dispatched
+    private static final int BACKLOG = 1024;
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    // larger than any form of a tag, so a request cannot make the server read without bound
+    private static final int MAX_BODY = 64 * 1024;
+
+    /**
+     * A request that cannot be served, answered with its status and message.
+     */
+    private static final class ApiException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final Photos app;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * create a server over a library, it does not accept requests until started
+     *
+     * @param app the library to serve
+     * @param address the address to listen on
+     * @throws IOException if the address cannot be bound
+     */
+    public PhotoServer(Photos app, InetSocketAddress address) throws IOException {
+        this.app = app;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(address, BACKLOG);
+        this.server.createContext("/api/", this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * start accepting requests
+     */
+    public void start() {
+        server.start();
+        LOGGER.info(() -> "Serving the library on " + server.getAddress());
+    }
+
+    /**
+     * stop accepting requests, waiting a little for the requests being served to finish
+     *
+     * @param delaySeconds how long to wait for the requests being served
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.close();
+    }
+
+    /**
+     * serve a request, answering with an error if it cannot be served
+     *
+     * @param exchange the request
+     * @throws IOException if the response cannot be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                route(exchange);
+            } catch (ApiException e) {
+                sendError(exchange, e.status, e.getMessage());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to serve " + exchange.getRequestURI(), e);
+                sendError(exchange, 500, "Internal error");
+            }
+        }
+    }
+
+    /**
+     * find what the request asks for and serve it
+     *
+     * @param exchange the request
+     * @throws IOException if the response cannot be sent
+     */
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        List<String> path = pathSegments(exchange);
+        Map<String, String> params = parameters(exchange);
+
+        // path starts with "api"
+        if (path.size() == 2 && path.get(1).equals("users")) {
+            requireMethod(method, "GET");
+            listUsers(exchange, params);
+            return;
+        }
+        if (path.size() < 4 || !path.get(1).equals("users")) {
+            throw new ApiException(404, "Not found");
+        }
+
+        User user = findUser(path.get(2));
+        if (path.size() == 4 && path.get(3).equals("search")) {
+            requireMethod(method, "GET");
+            search(exchange, user, params);
+        } else if (path.size() == 4 && path.get(3).equals("albums")) {
+            requireMethod(method, "GET");
+            listAlbums(exchange, user, params);
+        } else if (path.size() == 6 && path.get(3).equals("albums") && path.get(5).equals("photos")) {
+            requireMethod(method, "GET");
+            listPhotos(exchange, findAlbum(user, path.get(4)), params);
+        } else if (path.size() == 8 && path.get(3).equals("albums") && path.get(5).equals("photos")
+                && path.get(7).equals("tags")) {
+            Album album = findAlbum(user, path.get(4));
+            switch (method) {
+                case "POST" -> addTag(exchange, user, album, path.get(6), params);
+                case "DELETE" -> deleteTag(exchange, user, album, path.get(6), params);
+                default -> throw new ApiException(405, "Method not allowed");
+            }
+        } else {
+            throw new ApiException(404, "Not found");
+        }
+    }
+
+    /**
+     * list the users
+     */
+    private void listUsers(HttpExchange exchange, Map<String, String> params) throws IOException {
+        List<User> users = app.getUsers();
+        Page page = Page.of(params, users.size());
+        try (JsonResponse response = JsonResponse.ok(exchange)) {
+            JsonWriter json = page.begin(response.json);
+            for (User user : users.subList(page.from, page.to)) {
+                json.beginObject()
+                        .name("username").value(user.getUsername())
+                        .name("albums").value(user.getAlbums().size())
+                        .endObject();
+            }
+            page.end(json);
+        }
+    }
+
+    /**
+     * list the albums of a user
+     */
+    private void listAlbums(HttpExchange exchange, User user, Map<String, String> params) throws IOException {
+        List<Album> albums = user.getAlbums();
+        Page page = Page.of(params, albums.size());
+        try (JsonResponse response = JsonResponse.ok(exchange)) {
+            JsonWriter json = page.begin(response.json);
+            for (Album album : albums.subList(page.from, page.to)) {
+                json.beginObject()
+                        .name("name").value(album.getAlbumName())
+                        .name("photos").value(album.getSize())
+                        .name("start").value(instant(album.getStartDate()))
+                        .name("end").value(instant(album.getEndDate()))
+                        .endObject();
+            }
+            page.end(json);
+        }
+    }
+
+    /**
+     * list the photos of an album
+     */
+    private void listPhotos(HttpExchange exchange, Album album, Map<String, String> params) throws IOException {
+        // one snapshot, so the page and the total agree even while the album changes
+        List<Photo> photos = album.getPhotos();
+        Page page = Page.of(params, photos.size());
+        try (JsonResponse response = JsonResponse.ok(exchange)) {
+            JsonWriter json = page.begin(response.json);
+            for (int i = page.from; i < page.to; i++) {
+                writePhoto(json, album, i, photos.get(i));
+            }
+            page.end(json);
+        }
+    }
+
+    /**
+     * search the albums of a user, listing each photo found with its album and its position
+     */
+    private void search(HttpExchange exchange, User user, Map<String, String> params) throws IOException {
+        String query = params.get("q");
+        if (query == null || query.isBlank()) {
+            throw new ApiException(400, "Missing query");
+        }
+        if (!Album.isValidQuery(query)) {
+            throw new ApiException(400, "Invalid query");
+        }
+
+        List<Album> albums = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        List<Photo> found = new ArrayList<>();
+        for (Album album : user.getAlbums()) {
+            // search the same snapshot the positions are taken from
+            List<Photo> photos = album.getPhotos();
+            List<Photo> matches;
+            try {
+                matches = Album.search(query, photos);
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "Invalid query");
+            }
+            // the matches are in album order, so one pass finds their positions
+            int next = 0;
+            for (int i = 0; i < photos.size() && next < matches.size(); i++) {
+                if (photos.get(i) == matches.get(next)) {
+                    albums.add(album);
+                    indexes.add(i);
+                    found.add(photos.get(i));
+                    next++;
+                }
+            }
+        }
+
+        Page page = Page.of(params, found.size());
+        try (JsonResponse response = JsonResponse.ok(exchange)) {
+            JsonWriter json = page.begin(response.json);
+            for (int i = page.from; i < page.to; i++) {
+                writePhoto(json, albums.get(i), indexes.get(i), found.get(i));
+            }
+            page.end(json);
+        }
+    }
+
+    /**
+     * add a tag to a photo and answer with the photo
+     */
+    private void addTag(HttpExchange exchange, User user, Album album, String index, Map<String, String> params) throws IOException {
+        params.putAll(formParameters(exchange));
+        List<Photo> photos = album.getPhotos();
+        int position = photoIndex(album, photos, index);
+        Photo photo = photos.get(position);
+        String key = params.get("key");
+        String value = params.get("value");
+        if (key == null || key.isBlank() || value == null || value.isBlank()) {
+            throw new ApiException(400, "Missing tag key or value");
+        }
+
+        photo.addTag(key.strip(), value.strip());
+        save(user);
+        try (JsonResponse response = JsonResponse.ok(exchange)) {
+            writePhoto(response.json, album, position, photo);
+        }
+    }
+
+    /**
+     * remove a tag from a photo and answer with the photo
+     */
+    private void deleteTag(HttpExchange exchange, User user, Album album, String index, Map<String, String> params) throws IOException {
+        List<Photo> photos = album.getPhotos();
+        int position = photoIndex(album, photos, index);
+        Photo photo = photos.get(position);
+        String key = params.get("key");
+        String value = params.get("value");
+        if (key == null || key.isBlank() || value == null || value.isBlank()) {
+            throw new ApiException(400, "Missing tag key or value");
+        }
+
+        photo.deleteTag(key.strip(), value.strip());
+        save(user);
+        try (JsonResponse response = JsonResponse.ok(exchange)) {
+            writePhoto(response.json, album, position, photo);
+        }
+    }
+
+    /**
+     * save the file of a user after a change, the files of the other users are not touched
+     */
+    private static void save(User user) {
+        try {
+            Photos.writeUser(user);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to save " + user.getUsername(), e);
+            throw new ApiException(500, "Failed to save " + user.getUsername());
+        }
+    }
+
+    /**
+     * write a photo with the album it was found in and its position there
+     */
+    private static void writePhoto(JsonWriter json, Album album, int index, Photo photo) throws IOException {
+        json.beginObject()
+                .name("album").value(album.getAlbumName())
+                .name("index").value(index)
+                .name("file").value(photo.getFilePath())
+                .name("caption").value(photo.getCaption())
+                .name("date").value(instant(photo.getDate()))
+                .name("width").value(photo.getWidth())
+                .name("height").value(photo.getHeight())
+                .name("missing").value(photo.isMissing())
+                .name("tags").beginArray();
+        for (Map<String, String> tag : photo.getTags()) {
+            for (Map.Entry<String, String> entry : tag.entrySet()) {
+                json.beginObject()
+                        .name("key").value(entry.getKey())
+                        .name("value").value(entry.getValue())
+                        .endObject();
+            }
+        }
+        json.endArray().endObject();
+    }
+
+    /**
+     * format a date as an ISO-8601 instant
+     */
+    private static String instant(Calendar date) {
+        return date == null ? null : Instant.ofEpochMilli(date.getTimeInMillis()).toString();
+    }
+
+    /**
+     * find a user by name
+     */
+    private User findUser(String username) {
+        for (User user : app.getUsers()) {
+            if (user.getUsername().equals(username)) {
+                return user;
+            }
+        }
+        throw new ApiException(404, "No user " + username);
+    }
+
+    /**
+     * find an album of a user by name
+     */
+    private static Album findAlbum(User user, String albumName) {
+        Album album = user.getAlbum(albumName);
+        if (album == null) {
+            throw new ApiException(404, "No album " + albumName);
+        }
+        return album;
+    }
+
+    /**
+     * parse the position of a photo in a snapshot of an album
+     */
+    private static int photoIndex(Album album, List<Photo> photos, String index) {
+        int position;
+        try {
+            position = Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Invalid photo index " + index);
+        }
+        if (position < 0 || position >= photos.size()) {
+            throw new ApiException(404, "No photo " + index + " in album " + album.getAlbumName());
+        }
+        return position;
+    }
+
+    /**
+     * reject a request made with another method than the one the resource takes
+     */
+    private static void requireMethod(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new ApiException(405, "Method not allowed");
+        }
+    }
+
+    /**
+     * split the path of a request into its decoded segments, so names may contain slashes
+     */
+    private static List<String> pathSegments(HttpExchange exchange) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : exchange.getRequestURI().getRawPath().split("/")) {
+            if (!segment.isEmpty()) {
+                // a plus is a plus in a path, only the query uses it for spaces
+                segments.add(URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * parse the query parameters of a request
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        return decodeForm(exchange.getRequestURI().getRawQuery());
+    }
+
+    /**
+     * parse the parameters sent as a form in the body of a request
+     */
+    private static Map<String, String> formParameters(HttpExchange exchange) throws IOException {
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (type == null || !type.startsWith("application/x-www-form-urlencoded")) {
+            return Map.of();
+        }
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] bytes = body.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY) {
+                throw new ApiException(413, "Request body too large");
+            }
+            return decodeForm(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * decode {@code name=value} pairs separated by ampersands
+     */
+    private static Map<String, String> decodeForm(String form) {
+        Map<String, String> params = new HashMap<>();
+        if (form == null || form.isEmpty()) {
+            return params;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals == -1 ? pair : pair.substring(0, equals);
+            String value = equals == -1 ? "" : pair.substring(equals + 1);
+            try {
+                params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "Invalid parameter " + pair);
+            }
+        }
+        return params;
+    }
+
+    /**
+     * answer with an error
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        // the response may already be under way if writing it failed, then there is nothing to add
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+        try (JsonResponse response = new JsonResponse(exchange, status)) {
+            response.json.beginObject().name("error").value(message).endObject();
+        }
+    }
+
+    /**
+     * A part of a list asked for with the {@code offset} and {@code limit} parameters, written
+     * as an object with the total size of the list and the items on the page.
+     */
+    private static final class Page {
+        private final int offset;
+        private final int limit;
+        private final int total;
+        private final int from;
+        private final int to;
+
+        private Page(int offset, int limit, int total) {
+            this.offset = offset;
+            this.limit = limit;
+            this.total = total;
+            this.from = Math.min(offset, total);
+            this.to = (int) Math.min((long) offset + limit, total);
+        }
+
+        /**
+         * get the page a request asks for
+         *
+         * @param params the parameters of the request
+         * @param total the size of the list
+         * @return the page
+         */
+        static Page of(Map<String, String> params, int total) {
+            int offset = intParameter(params, "offset", 0);
+            int limit = intParameter(params, "limit", DEFAULT_LIMIT);
+            if (offset < 0 || limit < 1 || limit > MAX_LIMIT) {
+                throw new ApiException(400, "Offset must be at least 0 and limit between 1 and " + MAX_LIMIT);
+            }
+            return new Page(offset, limit, total);
+        }
+
+        /**
+         * write the start of the page, up to its items
+         *
+         * @param json where the page is written
+         * @return the writer, to write the items with
+         * @throws IOException if the page cannot be written
+         */
+        JsonWriter begin(JsonWriter json) throws IOException {
+            return json.beginObject()
+                    .name("offset").value(offset)
+                    .name("limit").value(limit)
+                    .name("total").value(total)
+                    .name("items").beginArray();
+        }
+
+        /**
+         * write the end of the page, after its items
+         *
+         * @param json where the page is written
+         * @throws IOException if the page cannot be written
+         */
+        void end(JsonWriter json) throws IOException {
+            json.endArray().endObject();
+        }
+
+        private static int intParameter(Map<String, String> params, String name, int defaultValue) {
+            String value = params.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "Invalid " + name + " " + value);
+            }
+        }
+    }
+
+    /**
+     * A JSON response sent with chunked encoding, so it is written to the client while it is
+     * built.
+     */
+    private static final class JsonResponse implements AutoCloseable {
+        private final Writer writer;
+        private final JsonWriter json;
+
+        private JsonResponse(HttpExchange exchange, int status) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, 0);
+            this.writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+            this.json = new JsonWriter(writer);
+        }
+
+        static JsonResponse ok(HttpExchange exchange) throws IOException {
+            return new JsonResponse(exchange, 200);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * load the library and serve it until the process is stopped
+     *
+     * @param args the port to listen on, 8080 if there is none
+     */
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Photos app;
+        try {
+            app = Photos.loadLibrary();
+        } catch (UncheckedIOException e) {
+            // serving, and saving on exit, a library that was not read would overwrite it
+            LOGGER.log(Level.SEVERE, "Failed to read the library", e);
+            System.exit(1);
+            return;
+        }
+        if (!new File(Photos.storeDir, Photos.usersFile).exists()) {
+            // a new library, or one in the single file of older versions, gets its per-user files
+            // first, so saving the user a request changed is enough from then on
+            try {
+                Photos.writeApp(app);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to save the library", e);
+                System.exit(1);
+                return;
+            }
+        }
+        PhotoServer photoServer;
+        try {
+            photoServer = new PhotoServer(app, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to listen on port " + port, e);
+            System.exit(1);
+            return;
+        }
+
+        // every change is saved when it is made, so stopping only finishes the requests being served
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> photoServer.stop(1)));
+        photoServer.start();
+    }
+}